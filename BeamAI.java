@@ -0,0 +1,406 @@
+package de.fhkiel.ki.examples.gui.withAi;
+
+import de.fhkiel.ki.ai.CathedralAI;
+import de.fhkiel.ki.cathedral.*;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.CellMask;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Deadline;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.FootprintTable;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Log;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Metrics;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Ranking;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.ResourceLimited;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.SearchState;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.TimeLimited;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AI that searches the game tree with a beam of fixed width per ply. On every board of the search only the best
+ * placements are followed, as many as the width of the ply allows, thus a search costs at most the product of the
+ * widths, no matter how many placements the board has. The value of a placement is its weighted score minus the
+ * value of the best reply of the opponent, like in {@link NegamaxAI}.
+ * <p>
+ * The placements of a board are ranked in two stages. Every footprint that fits is first ranked by a static score,
+ * which only needs the building and the cells around it. Only the best of those are made on the {@link SearchState},
+ * which checks the regions they capture, and ranked again by their weighted score. The subtrees of a wide beam at the
+ * root are searched in parallel, each on the state of its thread.
+ */
+public class BeamAI implements CathedralAI, TimeLimited, ResourceLimited {
+    // The default amount of placements that are followed on the boards of each ply, which is also the depth
+    public static final int[] DEFAULT_WIDTHS = {16, 8, 4};
+    // How many placements per place of the beam are checked for their regions after the static ranking
+    public static final int PRE_RANK_FACTOR = 4;
+    // The width of the beam at the root from which its subtrees are searched in parallel
+    public static final int PARALLEL_WIDTH = 4;
+
+    // Instance variables
+    // ------------------
+
+    // The amount of placements that are followed on the boards of each ply
+    private final int[] widths;
+    // The weights that rate the placements
+    private final WeightContainer weights;
+    // How many threads search the subtrees of the root
+    private int threads;
+    // The footprints of every building at every position, calculated once at the start of the game
+    private FootprintTable footprints;
+    // The score of each building, by its id
+    private int[] buildingScores;
+    // Pool that searches the subtrees of the root, created once for the whole game
+    private ForkJoinPool pool;
+    // The buffers and the state of each thread that searches
+    private ThreadLocal<Worker> workers;
+    // The time budget of a single turn in milliseconds
+    private long timeLimit;
+    // The point in time at which the current turn has to be finished
+    private Deadline deadline;
+    // The amount of boards that have been ranked in the current search
+    private final LongAdder nodes = new LongAdder();
+    // The counters and the durations of the turns
+    private final Metrics metrics = new Metrics();
+
+    // Constructors
+    // ------------
+    public BeamAI() {
+        this(DEFAULT_WIDTHS);
+    }
+
+    public BeamAI(int[] widths) {
+        this(widths, new WeightContainer(-1.0f, 1.0f, 1.0f, .8f, -1.0f));
+    }
+
+    public BeamAI(int[] widths, WeightContainer weights) {
+        this(widths, weights, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BeamAI(int[] widths, WeightContainer weights, int threads) {
+        if (widths.length < 1) {
+            throw new IllegalArgumentException("At least one ply is needed");
+        }
+        for (int width : widths) {
+            if (width < 1) {
+                throw new IllegalArgumentException("The width of a ply must be at least 1, but was " + width);
+            }
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed, but there were " + threads);
+        }
+        this.widths = widths.clone();
+        this.weights = weights;
+        this.threads = threads;
+        this.timeLimit = Deadline.DEFAULT_BUDGET_MILLIS;
+    }
+
+    @Override
+    public String name() {
+        return "Team ECHO Beam";
+    }
+
+    @Override
+    public void init(Game game) {
+        footprints = FootprintTable.create(game);
+        buildingScores = new int[footprints.getBuildings().size()];
+        for (int id = 0; id < buildingScores.length; id++) {
+            buildingScores[id] = footprints.building(id).score();
+        }
+        pool = new ForkJoinPool(threads);
+        workers = ThreadLocal.withInitial(Worker::new);
+    }
+
+    @Override
+    public void stopAI() {
+        if (Log.INFO) {
+            Log.info("Metrics of " + name() + ":\n" + metrics.report());
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    @Override
+    public Placement takeTurn(Game game) {
+        long start = System.nanoTime();
+        deadline = Deadline.in(timeLimit);
+        nodes.reset();
+        // The state of the board at the root, which the threads only read
+        SearchState root = new SearchState(footprints);
+        root.reset(game);
+
+        // The beam at the root, copied out of the buffers of this thread
+        Worker worker = workers.get();
+        worker.state.reset(root);
+        int count = rank(worker, 0);
+        if (count == 0) {
+            return null;
+        }
+        int[] moves = Arrays.copyOf(worker.children[0], count);
+        double[] scores = Arrays.copyOf(worker.scores[0], count);
+
+        double[] values = new double[count];
+        if (count >= PARALLEL_WIDTH && threads > 1 && widths.length > 1) {
+            List<Callable<Double>> tasks = new ArrayList<>(count);
+            for (int rank = 0; rank < count; rank++) {
+                int move = moves[rank];
+                double score = scores[rank];
+                tasks.add(() -> searchRoot(root, move, score));
+            }
+            try {
+                List<Future<Double>> results = pool.invokeAll(tasks);
+                for (int rank = 0; rank < count; rank++) {
+                    values[rank] = results.get(rank).get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Arrays.fill(values, Double.NaN);
+            } catch (ExecutionException e) {
+                Log.error("A subtree of the beam failed", e);
+                Arrays.fill(values, Double.NaN);
+            }
+        } else {
+            for (int rank = 0; rank < count; rank++) {
+                values[rank] = searchRoot(root, moves[rank], scores[rank]);
+            }
+        }
+
+        // The first placement of the beam is taken, if no subtree has been searched in time
+        int best = 0;
+        int searched = 0;
+        for (int rank = 0; rank < count; rank++) {
+            if (Double.isNaN(values[rank])) {
+                continue;
+            }
+            if (searched++ == 0 || values[rank] > values[best]) {
+                best = rank;
+            }
+        }
+
+        long nanos = System.nanoTime() - start;
+        metrics.time("turn", start);
+        metrics.count("nodes", nodes.sum());
+        metrics.sample("nodesPerSecond", nodes.sum() * 1000000000L / Math.max(1, nanos));
+        metrics.sample("searchedRoots", searched);
+        if (searched < count) {
+            metrics.count("timeouts", 1);
+        }
+        if (Log.INFO) {
+            Log.info("Ranked " + nodes.sum() + " boards in " + nanos / 1000000 + " milliseconds, searched " + searched
+                    + " of " + count + " placements, value " + (searched > 0 ? values[best] : scores[best]));
+        }
+        return footprints.footprint(moves[best]).getPlacement();
+    }
+
+    /**
+     * Get the counters and the durations of the turns so far, with the ranked boards per second
+     *
+     * @return the metrics of this ai
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the time budget of a single turn. The subtrees of the root that have not been started when the budget is
+     * used up are not searched anymore.
+     *
+     * @param timeLimit the budget in milliseconds
+     */
+    @Override
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Limit the amount of threads that search the subtrees of the root. The pool of a game that has already been
+     * initialized is replaced, thus the limit takes effect with the next turn. The beam keeps no tables, thus the
+     * budget of the tables is not used.
+     *
+     * @param threads   the amount of threads
+     * @param megabytes the memory budget of the tables, which is not used
+     */
+    @Override
+    public void limitResources(int threads, int megabytes) {
+        ResourceLimited.checkLimits(threads, megabytes);
+        if (pool != null && !pool.isShutdown() && threads != this.threads) {
+            // The subtrees of a running turn are still finished by the old pool
+            pool.shutdown();
+            pool = new ForkJoinPool(threads);
+        }
+        this.threads = threads;
+    }
+
+    public int[] getWidths() {
+        return widths.clone();
+    }
+
+    // Search
+    // ------
+
+    /**
+     * Calculate the value of a placement of the beam at the root, on the state of the current thread
+     *
+     * @param root  the state at the root, which is only read
+     * @param move  the dense index of the footprint of the placement
+     * @param score the weighted score of the placement
+     * @return the value of the placement for the player to move, or NaN if the deadline was reached before
+     */
+    private double searchRoot(SearchState root, int move, double score) {
+        if (deadline.isExpired()) {
+            return Double.NaN;
+        }
+        if (widths.length == 1) {
+            return score;
+        }
+        Worker worker = workers.get();
+        worker.state.reset(root);
+        worker.state.make(footprints.footprint(move));
+        double value = score - search(worker, 1, false);
+        worker.state.unmake();
+        return value;
+    }
+
+    /**
+     * Calculate the value of the best placement of the beam for the player to move. A player without placements
+     * passes, and the opponent places on the same board again. Once both players have to pass, the score does not
+     * change anymore and the board is worth nothing.
+     *
+     * @param worker the buffers and the state of the thread, which is returned in the same state
+     * @param ply    the ply of the board, counted from the root
+     * @param passed if the opponent has passed on the same board before
+     * @return the value of the board for the player to move
+     */
+    private double search(Worker worker, int ply, boolean passed) {
+        int count = rank(worker, ply);
+        if (count == 0) {
+            // A pass on the last ply does not change the score of the leaf
+            if (passed || ply + 1 == widths.length) {
+                return 0.0;
+            }
+            worker.state.pass();
+            double value = -search(worker, ply + 1, true);
+            worker.state.unmake();
+            return value;
+        }
+        int[] moves = worker.children[ply];
+        double[] scores = worker.scores[ply];
+        if (ply + 1 == widths.length) {
+            // The beam is ranked by the weighted score, thus the first placement is the best leaf
+            return scores[0];
+        }
+        double best = Double.NEGATIVE_INFINITY;
+        for (int rank = 0; rank < count; rank++) {
+            // The placements that have been searched so far are taken, once the deadline is reached
+            if (rank > 0 && deadline.isExpired()) {
+                break;
+            }
+            worker.state.make(footprints.footprint(moves[rank]));
+            double value = scores[rank] - search(worker, ply + 1, false);
+            worker.state.unmake();
+            best = Math.max(best, value);
+        }
+        return best;
+    }
+
+    /**
+     * Fill the beam of a ply with the best placements of the player to move. Every footprint that fits is ranked by
+     * its static score first, and only the best of them are made on the state to get their weighted score.
+     *
+     * @param worker the buffers and the state of the thread, which is returned in the same state
+     * @param ply    the ply of the board, which selects the width and the buffers of the beam
+     * @return the amount of placements in the beam, ordered by their weighted score
+     */
+    private int rank(Worker worker, int ply) {
+        nodes.increment();
+        SearchState state = worker.state;
+        Color player = state.getCurrentPlayer();
+        int width = widths[ply];
+
+        // 1. Rank every footprint that fits by the building and the own buildings around it
+        CellMask own = state.mask(player);
+        double buildingWeight = player.equals(Color.Blue)
+                ? weights.scoreWeight
+                : weights.scoreWeight - weights.scoreDeltaWeight;
+        int count = 0;
+        for (int id = 0; id < buildingScores.length; id++) {
+            if (state.left(player, id) == 0) {
+                continue;
+            }
+            for (FootprintTable.Footprint footprint : footprints.canonicalFootprints(footprints.building(id))) {
+                if (state.fits(footprint, player)) {
+                    worker.fitting[count] = footprint.getIndex();
+                    worker.keys[count] = buildingWeight * buildingScores[id]
+                            + weights.captureWeight * footprint.getHull().intersectionCount(own);
+                    count++;
+                }
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        // 2. Check the regions of the best of them, in the same way as the candidate buffer
+        int[] shortlist = worker.shortlist;
+        int listed = Ranking.top(worker.keys, count, PRE_RANK_FACTOR * width, shortlist);
+        CellMask owned = state.mask(player.subColor());
+        int regions = owned.cardinality();
+        int score = state.getScore(player);
+        for (int i = 0; i < listed; i++) {
+            FootprintTable.Footprint footprint = footprints.footprint(worker.fitting[shortlist[i]]);
+            state.make(footprint);
+            worker.weighted[i] = weights.scoreDeltaWeight * (state.getScore(player) - score)
+                    + weights.scoreWeight * buildingScores[FootprintTable.buildingId(footprint.getCode())]
+                    + weights.captureWeight * (owned.cardinality() - regions);
+            state.unmake();
+        }
+
+        // 3. Keep the best ones for the beam of the ply
+        int[] beam = worker.beam;
+        int kept = Ranking.top(worker.weighted, listed, width, beam);
+        for (int rank = 0; rank < kept; rank++) {
+            worker.children[ply][rank] = worker.fitting[shortlist[beam[rank]]];
+            worker.scores[ply][rank] = worker.weighted[beam[rank]];
+        }
+        return kept;
+    }
+
+    /**
+     * The state and the buffers of a thread of the search. The buffers of the ranking are shared by all plies, as the
+     * ranking of a board is finished before the search goes deeper.
+     */
+    private final class Worker {
+        // The state the placements are made on
+        private final SearchState state;
+        // The dense indices of the footprints that fit onto the ranked board
+        private final int[] fitting;
+        // The static score of each fitting footprint
+        private final double[] keys;
+        // The positions of the footprints of the shortlist in the fitting footprints
+        private final int[] shortlist;
+        // The weighted score of each footprint of the shortlist
+        private final double[] weighted;
+        // The positions of the footprints of the beam in the shortlist
+        private final int[] beam;
+        // The dense indices of the footprints in the beam, by the ply
+        private final int[][] children;
+        // The weighted scores of the footprints in the beam, by the ply
+        private final double[][] scores;
+
+        Worker() {
+            state = new SearchState(footprints);
+            fitting = new int[footprints.size()];
+            keys = new double[footprints.size()];
+            int widest = 0;
+            children = new int[widths.length][];
+            scores = new double[widths.length][];
+            for (int ply = 0; ply < widths.length; ply++) {
+                children[ply] = new int[widths[ply]];
+                scores[ply] = new double[widths[ply]];
+                widest = Math.max(widest, widths[ply]);
+            }
+            shortlist = new int[PRE_RANK_FACTOR * widest];
+            weighted = new double[PRE_RANK_FACTOR * widest];
+            beam = new int[widest];
+        }
+    }
+}
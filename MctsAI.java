@@ -0,0 +1,477 @@
+package de.fhkiel.ki.examples.gui.withAi;
+
+import de.fhkiel.ki.ai.CathedralAI;
+import de.fhkiel.ki.cathedral.*;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.CandidateBuffer;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Deadline;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.FootprintTable;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Log;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Metrics;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.ResourceLimited;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.SearchState;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.TimeLimited;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * AI that searches the game tree with Monte Carlo tree search. Every iteration walks down the tree with the UCT rule,
+ * adds one new placement to the tree, plays the game to its end with a rollout policy that prefers placements with a
+ * high weighted score, and counts the result for every placement on the way. The placement that has been visited most
+ * often is taken when the time budget of the turn is used up, thus the placement gets better the longer the search
+ * runs.
+ * <p>
+ * All processors search the same tree at once. A worker that walks through a node adds a virtual loss to it until
+ * the result of its rollout is known, so that the other workers spread over different placements. The iterations are
+ * played on a {@link SearchState} of each worker instead of on copies of the game.
+ */
+public class MctsAI implements CathedralAI, TimeLimited, ResourceLimited {
+    // The weight of the exploration term of the UCT rule
+    public static final double EXPLORATION = Math.sqrt(2);
+    // The amount of visits that is added to a node while a worker is below it
+    public static final int VIRTUAL_LOSS = 1;
+    // The temperature of the rollout policy, lower values pick the placement with the highest score more often
+    public static final double ROLLOUT_TEMPERATURE = 4.0;
+    // The result of a rollout that has been cut off by the deadline, which is never the winner of a game
+    private static final Color UNFINISHED = Color.None;
+
+    // Instance variables
+    // ------------------
+
+    // The weights that rate the placements for the rollout policy and for the order of the expansion
+    private final WeightContainer weights;
+    // How many workers search the tree
+    private int workers;
+    // The footprints of every building at every position, calculated once at the start of the game
+    private FootprintTable footprints;
+    // Pool that runs the workers, created once for the whole game
+    private ForkJoinPool pool;
+    // The time budget of a single turn in milliseconds
+    private long timeLimit;
+    // The point in time at which the current turn has to be finished
+    private Deadline deadline;
+    // The counters and the durations of the turns
+    private final Metrics metrics = new Metrics();
+
+    // Constructors
+    // ------------
+    public MctsAI() {
+        this(new WeightContainer(-1.0f, 1.0f, 1.0f, .8f, -1.0f));
+    }
+
+    public MctsAI(WeightContainer weights) {
+        this(weights, Runtime.getRuntime().availableProcessors());
+    }
+
+    public MctsAI(WeightContainer weights, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed, but there were " + workers);
+        }
+        this.weights = weights;
+        this.workers = workers;
+        this.timeLimit = Deadline.DEFAULT_BUDGET_MILLIS;
+    }
+
+    @Override
+    public String name() {
+        return "Team ECHO MCTS";
+    }
+
+    @Override
+    public void init(Game game) {
+        footprints = FootprintTable.create(game);
+        pool = new ForkJoinPool(workers);
+    }
+
+    @Override
+    public void stopAI() {
+        if (Log.INFO) {
+            Log.info("Metrics of " + name() + ":\n" + metrics.report());
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    @Override
+    public Placement takeTurn(Game game) {
+        long start = System.nanoTime();
+        deadline = Deadline.in(timeLimit);
+        // The state of the board at the root, which the workers only read
+        SearchState state = new SearchState(footprints);
+        state.reset(game);
+        Node root = new Node(null, null, opponent(state.getCurrentPlayer()));
+        // There is nothing to search, if the player can not place any building
+        root.expand(generatePlacements(state, new CandidateBuffer(footprints)));
+        if (root.moves.length == 0) {
+            return null;
+        }
+
+        List<Future<?>> results = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            results.add(pool.submit(() -> search(root, state)));
+        }
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                Log.error("A worker of the search failed", e);
+            }
+        }
+
+        Node best = root.mostVisited();
+        long nanos = System.nanoTime() - start;
+        long duration = nanos / 1000000;
+        metrics.time("turn", start);
+        metrics.count("rollouts", root.visits);
+        metrics.sample("rolloutsPerSecond", root.visits * 1000000000L / Math.max(1, nanos));
+        // Not even one iteration finished in time, thus the placement with the highest score is taken
+        if (best == null) {
+            Log.warn("No rollout finished in " + duration + " milliseconds");
+            return footprints.get(root.moves[0]).getPlacement();
+        }
+        if (Log.INFO) {
+            Log.info("Played " + root.visits + " rollouts in " + duration + " milliseconds, best placement won "
+                    + Math.round(100 * best.wins / Math.max(1, best.visits)) + "% of " + best.visits);
+        }
+        return best.placement;
+    }
+
+    /**
+     * Get the counters and the durations of the turns so far, with the rollouts per second
+     *
+     * @return the metrics of this ai
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the time budget of a single turn. The search runs until the budget is used up.
+     *
+     * @param timeLimit the budget in milliseconds
+     */
+    @Override
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Limit the amount of workers that search the tree. The tree is the only memory of the search, thus the budget of
+     * the tables is not used.
+     *
+     * @param threads   the amount of workers
+     * @param megabytes the memory budget of the tables, which is not used
+     */
+    @Override
+    public void limitResources(int threads, int megabytes) {
+        ResourceLimited.checkLimits(threads, megabytes);
+        this.workers = threads;
+    }
+
+    // Search
+    // ------
+
+    /**
+     * Run iterations on the shared tree until the deadline is reached. Every worker keeps its own state and buffer
+     * for the rollouts, and resets the state to the root for each iteration.
+     *
+     * @param root      the root of the tree
+     * @param rootState the state at the root, which is only read
+     */
+    private void search(Node root, SearchState rootState) {
+        SearchState state = new SearchState(footprints);
+        CandidateBuffer buffer = new CandidateBuffer(footprints);
+        List<Node> path = new ArrayList<>();
+        while (!deadline.isExpired()) {
+            state.reset(rootState);
+            path.clear();
+            path.add(root);
+            Node node = root;
+            // Selection and expansion
+            while (true) {
+                Node child = node.select(state, buffer, this);
+                if (child == null) {
+                    break;
+                }
+                path.add(child);
+                if (child.placement == null) {
+                    state.pass();
+                } else {
+                    state.make(footprints.get(child.placement));
+                }
+                node = child;
+                // A new node is evaluated by a rollout, before the tree grows below it
+                if (!child.isExpanded()) {
+                    break;
+                }
+            }
+            // Simulation
+            boolean passed = node.placement == null && node != root;
+            Color winner = rollout(state, buffer, passed);
+            // A game that has not been played to its end says nothing about the placements on the path
+            if (winner == UNFINISHED) {
+                for (Node visited : path) {
+                    visited.revert();
+                }
+                break;
+            }
+            // Backpropagation
+            for (Node visited : path) {
+                visited.update(winner);
+            }
+        }
+    }
+
+    /**
+     * Play a game to its end with the rollout policy
+     *
+     * @param state  the state to play on, which is changed
+     * @param buffer the buffer for the placements of the worker
+     * @param passed if the last player has not been able to place a building
+     * @return the winner of the game, null on a draw, or {@link #UNFINISHED} if the deadline was reached first
+     */
+    private Color rollout(SearchState state, CandidateBuffer buffer, boolean passed) {
+        int passes = passed ? 1 : 0;
+        while (passes < 2 && !deadline.isExpired()) {
+            buffer.generate(state);
+            if (buffer.isEmpty()) {
+                state.pass();
+                passes++;
+            } else {
+                state.make(footprints.get(buffer.code(choose(buffer))));
+                passes = 0;
+            }
+        }
+        return passes < 2 ? UNFINISHED : winner(state);
+    }
+
+    /**
+     * Choose a placement for the rollout, with a probability that grows exponentially with the weighted score of the
+     * placement
+     *
+     * @param moves the placements of the board
+     * @return the slot of the chosen placement
+     */
+    private int choose(CandidateBuffer moves) {
+        moves.rate(weights.scoreDeltaWeight, weights.scoreWeight, weights.captureWeight, weights.preventWeight,
+                weights.opponentWeight);
+        double best = Double.NEGATIVE_INFINITY;
+        for (int slot = 0; slot < moves.size(); slot++) {
+            best = Math.max(best, moves.rated(slot));
+        }
+        double total = 0.0;
+        for (int slot = 0; slot < moves.size(); slot++) {
+            total += Math.exp((moves.rated(slot) - best) / ROLLOUT_TEMPERATURE);
+        }
+        double pick = ThreadLocalRandom.current().nextDouble(total);
+        for (int slot = 0; slot < moves.size(); slot++) {
+            pick -= Math.exp((moves.rated(slot) - best) / ROLLOUT_TEMPERATURE);
+            if (pick < 0) {
+                return slot;
+            }
+        }
+        return moves.size() - 1;
+    }
+
+    /**
+     * Generate all placements of the current player, best first
+     *
+     * @param state  the state to generate the placements for
+     * @param buffer the buffer of the worker
+     * @return the packed codes of the placements, ordered by their weighted score
+     */
+    private int[] generatePlacements(SearchState state, CandidateBuffer buffer) {
+        buffer.generate(state);
+        buffer.rate(weights.scoreDeltaWeight, weights.scoreWeight, weights.captureWeight, weights.preventWeight,
+                weights.opponentWeight);
+        buffer.sort(-1);
+        int[] moves = new int[buffer.size()];
+        for (int rank = 0; rank < moves.length; rank++) {
+            moves[rank] = buffer.code(buffer.ordered(rank));
+        }
+        return moves;
+    }
+
+    /**
+     * Get the winner of a finished game, which is the player with the lower score
+     *
+     * @param state the state of the finished game
+     * @return the winner, or null on a draw
+     */
+    private static Color winner(SearchState state) {
+        int black = state.getScore(Color.Black);
+        int white = state.getScore(Color.White);
+        if (black == white) {
+            return null;
+        }
+        return black < white ? Color.Black : Color.White;
+    }
+
+    /**
+     * Get the player that the result of a placement is counted for. The cathedral is placed for black.
+     *
+     * @param player the player that is about to place
+     * @return the opponent of the player
+     */
+    private static Color opponent(Color player) {
+        return player.equals(Color.White) ? Color.Black : Color.White;
+    }
+
+    private static Color side(Color player) {
+        return player.equals(Color.Blue) ? Color.Black : player;
+    }
+
+    /**
+     * A board in the tree, reached by a single placement. All fields are guarded by the node itself.
+     */
+    private static final class Node {
+        // The node that this node has been reached from
+        private final Node parent;
+        // The placement that leads to this node, null if the player did not place a building
+        private final Placement placement;
+        // The player whose wins are counted in this node
+        private final Color player;
+        // The packed codes of the placements of the player to move, best first, or null if the node has not been
+        // expanded yet
+        private int[] moves;
+        // The nodes of the placements that have been tried
+        private final List<Node> children;
+        // The amount of rollouts through this node, including the running ones
+        private int visits;
+        // The amount of rollouts through this node that the player has won, draws count half
+        private double wins;
+
+        Node(Node parent, Placement placement, Color player) {
+            this.parent = parent;
+            this.placement = placement;
+            this.player = side(player);
+            this.children = new ArrayList<>();
+        }
+
+        /**
+         * Set the placements of the player to move
+         *
+         * @param moves the packed codes of the placements, best first
+         */
+        synchronized void expand(int[] moves) {
+            if (this.moves == null) {
+                this.moves = moves;
+            }
+        }
+
+        synchronized boolean isExpanded() {
+            return moves != null;
+        }
+
+        /**
+         * Select the child to walk to, and add a virtual loss to it. Placements that have not been tried yet are
+         * tried first, in the order of their score. The placements of a new node are generated outside of its lock,
+         * so that other workers are not blocked meanwhile, and the first worker that is done publishes them.
+         *
+         * @param state  the state at this node
+         * @param buffer the buffer of the worker
+         * @param ai     the ai that generates the placements
+         * @return the child, or null if the game is over at this node
+         */
+        Node select(SearchState state, CandidateBuffer buffer, MctsAI ai) {
+            if (!isExpanded()) {
+                expand(ai.generatePlacements(state, buffer));
+            }
+            return selectExpanded(state, ai);
+        }
+
+        private synchronized Node selectExpanded(SearchState state, MctsAI ai) {
+            Node child;
+            if (moves.length == 0) {
+                // Both players can not place a building anymore
+                if (placement == null && parent != null) {
+                    return null;
+                }
+                if (children.isEmpty()) {
+                    children.add(new Node(this, null, state.getCurrentPlayer()));
+                }
+                child = children.get(0);
+            } else if (children.size() < moves.length) {
+                child = new Node(this, ai.footprints.get(moves[children.size()]).getPlacement(), state.getCurrentPlayer());
+                children.add(child);
+            } else {
+                child = bestChild();
+            }
+            child.addVirtualLoss();
+            return child;
+        }
+
+        /**
+         * Get the child with the highest UCT value
+         *
+         * @return the best child
+         */
+        private Node bestChild() {
+            double logVisits = Math.log(Math.max(1, visits));
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (Node child : children) {
+                double value = child.uct(logVisits);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        private synchronized double uct(double logParentVisits) {
+            int n = Math.max(1, visits);
+            return wins / n + EXPLORATION * Math.sqrt(logParentVisits / n);
+        }
+
+        private synchronized void addVirtualLoss() {
+            visits += VIRTUAL_LOSS;
+        }
+
+        /**
+         * Count the result of a rollout, and take back the virtual loss of the worker
+         *
+         * @param winner the winner of the rollout, or null on a draw
+         */
+        synchronized void update(Color winner) {
+            if (parent != null) {
+                visits -= VIRTUAL_LOSS;
+            }
+            visits++;
+            if (winner == null) {
+                wins += 0.5;
+            } else if (winner.equals(player)) {
+                wins += 1.0;
+            }
+        }
+
+        /**
+         * Take back the virtual loss of a worker whose rollout has been cut off, without counting a result
+         */
+        synchronized void revert() {
+            if (parent != null) {
+                visits -= VIRTUAL_LOSS;
+            }
+        }
+
+        /**
+         * Get the child that has been visited most often, which is the most robust choice
+         *
+         * @return the most visited child, or null if no child has been tried
+         */
+        synchronized Node mostVisited() {
+            Node best = null;
+            for (Node child : children) {
+                if (best == null || child.visits > best.visits) {
+                    best = child;
+                }
+            }
+            return best;
+        }
+    }
+}
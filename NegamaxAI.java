@@ -0,0 +1,426 @@
+package de.fhkiel.ki.examples.gui.withAi;
+
+import de.fhkiel.ki.ai.CathedralAI;
+import de.fhkiel.ki.cathedral.*;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.CandidateBuffer;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.CaptureEvaluator;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.CellMask;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Deadline;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.FootprintTable;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Log;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Metrics;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.MoveIndex;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.ResourceLimited;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.TimeLimited;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.TranspositionTable;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Zobrist;
+
+import java.util.*;
+
+/**
+ * AI that searches the game tree with negamax and alpha-beta pruning. The value of a placement is its weighted score
+ * as calculated by {@link NewAi.PlacementData#getScore(WeightContainer)}, minus the value of the best reply of the
+ * opponent. The search deepens one ply per iteration up to a configurable depth, and returns the best placement of the
+ * last iteration that finished within the time budget of the turn. Searched boards are kept in a transposition table,
+ * so that boards reached by a different order of placements are not searched again, and so that each iteration
+ * starts with the best placements of the previous one.
+ */
+public class NegamaxAI implements CathedralAI, TimeLimited, ResourceLimited {
+    // The default maximum amount of plies to search
+    public static final int DEFAULT_DEPTH = 3;
+    // The default memory budget of the transposition table in megabytes
+    public static final int DEFAULT_TABLE_MEGABYTES = 64;
+
+    // Instance variables
+    // ------------------
+
+    // How many plies the search looks ahead at most
+    private final int depth;
+    // The weights that are used to evaluate a single placement
+    private final WeightContainer weights;
+    // The memory budget of the transposition table in megabytes
+    private int tableMegabytes;
+    // The footprints of every building at every position, calculated once at the start of the game
+    private FootprintTable footprints;
+    // Evaluator for the regions of the placements, reloaded for every searched board
+    private CaptureEvaluator evaluator;
+    // The footprints that fit onto the searched board, kept over the whole game
+    private MoveIndex moveIndex;
+    // The placements of the searched boards, by the remaining depth, reused for every board of that depth
+    private CandidateBuffer[] buffers;
+    // Hashing of the searched boards
+    private Zobrist zobrist;
+    // The searched boards, kept over the whole game
+    private TranspositionTable table;
+    // The time budget of a single turn in milliseconds
+    private long timeLimit;
+    // The point in time at which the current turn has to be finished
+    private Deadline deadline;
+    // The amount of boards that have been visited in the current search
+    private long nodes;
+    // The counters and the durations of the turns
+    private final Metrics metrics = new Metrics();
+
+    // Constructors
+    // ------------
+    public NegamaxAI() {
+        this(DEFAULT_DEPTH);
+    }
+
+    public NegamaxAI(int depth) {
+        this(depth, new WeightContainer(-1.0f, 1.0f, 1.0f, .8f, -1.0f));
+    }
+
+    public NegamaxAI(int depth, WeightContainer weights) {
+        this(depth, weights, DEFAULT_TABLE_MEGABYTES);
+    }
+
+    public NegamaxAI(int depth, WeightContainer weights, int tableMegabytes) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("The search depth must be at least 1, but was " + depth);
+        }
+        this.depth = depth;
+        this.weights = weights;
+        this.tableMegabytes = tableMegabytes;
+        this.timeLimit = Deadline.DEFAULT_BUDGET_MILLIS;
+    }
+
+    @Override
+    public String name() {
+        return "Team ECHO Negamax (" + depth + ")";
+    }
+
+    @Override
+    public void init(Game game) {
+        footprints = FootprintTable.create(game);
+        evaluator = new CaptureEvaluator(footprints);
+        moveIndex = new MoveIndex(footprints);
+        buffers = new CandidateBuffer[depth + 1];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new CandidateBuffer(footprints);
+        }
+        zobrist = new Zobrist(footprints);
+        table = new TranspositionTable(tableMegabytes, TranspositionTable.Replacement.DEPTH_PREFERRED);
+    }
+
+    @Override
+    public void stopAI() {
+        if (Log.INFO) {
+            Log.info("Metrics of " + name() + ":\n" + metrics.report());
+        }
+    }
+
+    @Override
+    public Placement takeTurn(Game game) {
+        long start = System.nanoTime();
+        deadline = Deadline.in(timeLimit);
+        Game copy = game.copy();
+        long hash = zobrist.hash(copy);
+        nodes = 0;
+        // Only the footprints around the placements since the last turn have to be checked again
+        moveIndex.sync(copy);
+
+        Placement best = null;
+        double bestValue = 0.0;
+        int completedDepth = 0;
+        for (int iteration = 1; iteration <= depth; iteration++) {
+            try {
+                negamax(copy, hash, iteration, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            } catch (SearchTimeout timeout) {
+                // The game copy is left in the middle of the search, but it is not needed anymore
+                break;
+            }
+            // The root is always stored, as nothing can replace it during its own search
+            int slot = table.probe(hash);
+            if (slot < 0 || table.move(slot) == TranspositionTable.NO_MOVE) {
+                // There is no placement left for the current player
+                break;
+            }
+            best = footprints.get(table.move(slot)).getPlacement();
+            bestValue = table.value(slot);
+            completedDepth = iteration;
+        }
+        // Not even the first iteration finished in time, thus the placement with the highest own score is taken
+        if (completedDepth == 0) {
+            Game board = game.copy();
+            // The index is left in the middle of the search
+            moveIndex.sync(board);
+            CandidateBuffer moves = generatePlacements(board, depth, TranspositionTable.NO_MOVE);
+            best = moves.isEmpty() ? null : moves.placement(moves.ordered(0));
+        }
+
+        long nanos = System.nanoTime() - start;
+        metrics.time("turn", start);
+        metrics.count("nodes", nodes);
+        metrics.sample("nodesPerSecond", nodes * 1000000000L / Math.max(1, nanos));
+        metrics.sample("depth", completedDepth);
+        if (Log.INFO) {
+            Log.info("Searched " + nodes + " nodes to depth " + completedDepth + " in " + nanos / 1000000
+                    + " milliseconds, value " + bestValue);
+        }
+        return best;
+    }
+
+    /**
+     * Get the counters and the durations of the turns so far, with the nodes per second and the completed depth
+     *
+     * @return the metrics of this ai
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the time budget of a single turn. The turn returns the best placement of the last iteration that has been
+     * completed within the budget.
+     *
+     * @param timeLimit the budget in milliseconds
+     */
+    @Override
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Limit the memory of the transposition table. The search runs on the calling thread only, thus the amount of
+     * threads is not used.
+     *
+     * @param threads   the amount of threads, which is not used
+     * @param megabytes the memory budget of the transposition table
+     */
+    @Override
+    public void limitResources(int threads, int megabytes) {
+        ResourceLimited.checkLimits(threads, megabytes);
+        this.tableMegabytes = megabytes;
+    }
+
+    // Search
+    // ------
+
+    /**
+     * Calculate the value of the best placement for the player to move, and store it in the transposition table
+     *
+     * @param game  the game to search on, which is returned in the same state
+     * @param hash  the hash of the board of the game
+     * @param depth the remaining plies to search
+     * @param alpha the value the player to move is already guaranteed
+     * @param beta  the value the opponent is already guaranteed, negated
+     * @return the value of the board for the player to move
+     */
+    private double negamax(Game game, long hash, int depth, double alpha, double beta) {
+        if (deadline.isExpired()) {
+            throw new SearchTimeout();
+        }
+        double alphaStart = alpha;
+        // Use the result of an earlier search of this board, if it was searched deep enough
+        int hashMove = TranspositionTable.NO_MOVE;
+        int slot = table.probe(hash);
+        if (slot >= 0) {
+            hashMove = table.move(slot);
+            if (table.depth(slot) >= depth) {
+                double value = table.value(slot);
+                switch (table.bound(slot)) {
+                    case TranspositionTable.EXACT -> {
+                        return value;
+                    }
+                    case TranspositionTable.LOWER_BOUND -> alpha = Math.max(alpha, value);
+                    case TranspositionTable.UPPER_BOUND -> beta = Math.min(beta, value);
+                }
+                if (alpha >= beta) {
+                    return value;
+                }
+            }
+        }
+
+        CandidateBuffer moves = generatePlacements(game, depth, hashMove);
+        // A player without placements passes, and the opponent places on the same board
+        if (moves.isEmpty()) {
+            double value = pass(game, hash, depth, alpha, beta);
+            table.store(hash, depth, value, bound(value, alphaStart, beta), TranspositionTable.NO_MOVE);
+            return value;
+        }
+        // The placements are ordered by their own score, thus the first one is the best leaf
+        if (depth <= 1) {
+            int best = bestLeaf(moves);
+            double value = moves.rated(best);
+            table.store(hash, depth, value, TranspositionTable.EXACT, moves.code(best));
+            return value;
+        }
+        double bestValue = Double.NEGATIVE_INFINITY;
+        int bestMove = TranspositionTable.NO_MOVE;
+        for (int rank = 0; rank < moves.size(); rank++) {
+            int move = moves.ordered(rank);
+            double value = scoreMove(game, hash, moves.code(move), moves.positions(move), moves.rated(move), depth,
+                    alpha, beta);
+            if (value > bestValue) {
+                bestValue = value;
+                bestMove = moves.code(move);
+            }
+            if (value > alpha) {
+                alpha = value;
+            }
+            // The opponent would never allow this board
+            if (alpha >= beta) {
+                break;
+            }
+        }
+
+        // The rules engine rejected every generated placement, thus the player has to pass after all
+        if (bestValue == Double.NEGATIVE_INFINITY) {
+            double value = pass(game, hash, depth, alpha, beta);
+            table.store(hash, depth, value, bound(value, alphaStart, beta), TranspositionTable.NO_MOVE);
+            return value;
+        }
+        table.store(hash, depth, bestValue, bound(bestValue, alphaStart, beta), bestMove);
+        return bestValue;
+    }
+
+    /**
+     * Continue the search for a player that can not place any building, with the opponent placing on the same board.
+     * The score does not change anymore once neither player can place a building, or on the last ply.
+     *
+     * @param game  the game with the player to move that has to pass, which is not changed
+     * @param hash  the hash of the board of the game
+     * @param depth the remaining plies to search, including the pass
+     * @param alpha the lower bound of the window
+     * @param beta  the upper bound of the window
+     * @return the value of the board for the player that passes
+     */
+    private double pass(Game game, long hash, int depth, double alpha, double beta) {
+        if (depth <= 1) {
+            return 0.0;
+        }
+        Game next = game.copy();
+        next.forfeitTurn();
+        // The game is over, if the opponent can not place a building either
+        if (generatePlacements(next, depth - 1, TranspositionTable.NO_MOVE).isEmpty()) {
+            return 0.0;
+        }
+        long child = hash ^ zobrist.playerKey(game.getCurrentPlayer()) ^ zobrist.playerKey(next.getCurrentPlayer());
+        return -negamax(next, child, depth - 1, -beta, -alpha);
+    }
+
+    /**
+     * Get the bound of a value that has been searched with a window
+     *
+     * @param value the value of the search
+     * @param alpha the lower bound of the window
+     * @param beta  the upper bound of the window
+     * @return the bound of the value for the transposition table
+     */
+    private static byte bound(double value, double alpha, double beta) {
+        if (value <= alpha) {
+            return TranspositionTable.UPPER_BOUND;
+        }
+        if (value >= beta) {
+            return TranspositionTable.LOWER_BOUND;
+        }
+        return TranspositionTable.EXACT;
+    }
+
+    /**
+     * Calculate the value of a single placement, which is its own score minus the value of the opponent's reply
+     *
+     * @param game  the game to search on, which is returned in the same state
+     * @param hash  the hash of the board before the placement
+     * @param code  the packed code of the placement to rate
+     * @param delta the change of the region cells of the player by the placement
+     * @param score the weighted score of the placement
+     * @param depth the remaining plies to search, including this placement
+     * @param alpha the lower bound of the window
+     * @param beta  the upper bound of the window
+     * @return the value of the placement for the player that places it
+     */
+    private double scoreMove(Game game, long hash, int code, int delta, double score, int depth, double alpha,
+                             double beta) {
+        if (depth <= 1) {
+            return score;
+        }
+        FootprintTable.Footprint footprint = footprints.get(code);
+        Color player = game.getCurrentPlayer();
+        // The key of the building and of the own regions it covers, read from the index before it changes
+        long placed = placedKeys(footprint, player);
+        if (!game.takeTurn(footprint.getPlacement(), false)) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        // A placement that captures changes regions all over the board, only then the whole board is hashed
+        long child = moveIndex.make(game, footprint, delta)
+                ? hash ^ placed ^ zobrist.playerKey(player) ^ zobrist.playerKey(game.getCurrentPlayer())
+                : zobrist.hash(game);
+        // value = score - child, thus the window of the child is shifted and mirrored
+        double value = score - negamax(game, child, depth - 1, score - beta, score - alpha);
+        game.undoLastTurn();
+        moveIndex.unmake();
+        return value;
+    }
+
+    /**
+     * Get the change of the hash by a placement that captures nothing: the key of the building, and the keys of the
+     * regions of the player that the building covers
+     *
+     * @param footprint the footprint of the placement
+     * @param player    the player that places the building
+     * @return the keys to add to the hash of the board
+     */
+    private long placedKeys(FootprintTable.Footprint footprint, Color player) {
+        long keys = zobrist.placementKey(footprint.getCanonical().getCode());
+        // The cathedral has no regions, and the board is hashed completely after it
+        if (player == Color.Blue) {
+            return keys;
+        }
+        Color region = player.subColor();
+        CellMask form = footprint.getForm();
+        for (int cell = form.nextSetBit(0); cell >= 0; cell = form.nextSetBit(cell + 1)) {
+            if (moveIndex.color(cell) == region) {
+                keys ^= zobrist.regionKey(region, cell);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Get the placement with the highest own score, which is the first one unless the hash move was put in front
+     *
+     * @param moves the ordered placements
+     * @return the slot of the placement with the highest score
+     */
+    private int bestLeaf(CandidateBuffer moves) {
+        int first = moves.ordered(0);
+        if (moves.size() > 1 && moves.rated(moves.ordered(1)) > moves.rated(first)) {
+            return moves.ordered(1);
+        }
+        return first;
+    }
+
+    /**
+     * Generate all placements of the current player, ordered by their own score so that the best placements are
+     * searched first and the pruning cuts as much as possible. The best placement of an earlier search is put first.
+     *
+     * @param game     the game to generate the placements for
+     * @param depth    the remaining depth, which selects the buffer of the placements
+     * @param hashMove the packed code of the best placement of an earlier search, or NO_MOVE
+     * @return the buffer of the depth with the placements, best first
+     */
+    private CandidateBuffer generatePlacements(Game game, int depth, int hashMove) {
+        nodes++;
+        CandidateBuffer moves = buffers[depth];
+        moves.generate(game, evaluator, moveIndex);
+        moves.rate(weights.scoreDeltaWeight, weights.scoreWeight, weights.captureWeight, weights.preventWeight,
+                weights.opponentWeight);
+        moves.sort(hashMove);
+        return moves;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Thrown to unwind the search when the deadline of the turn is reached
+     */
+    private static final class SearchTimeout extends RuntimeException {
+        SearchTimeout() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -2,12 +2,33 @@ package de.fhkiel.ki.examples.gui.withAi;
 
 import de.fhkiel.ki.ai.CathedralAI;
 import de.fhkiel.ki.cathedral.*;
-
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.CandidateBuffer;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.CaptureEvaluator;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.CellMask;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Deadline;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.EndgameSolver;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.FeatureCache;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.FootprintTable;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Log;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Metrics;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.MoveIndex;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.OpeningBook;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Ranking;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.ResourceLimited;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.SearchState;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.TimeLimited;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Zobrist;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class NewAi implements CathedralAI {
+public class NewAi implements CathedralAI, TimeLimited, ResourceLimited {
 
     /* Colors */
     public static final String ANSI_RESET = "\u001B[0m";
@@ -19,16 +40,106 @@ public class NewAi implements CathedralAI {
     public static final String ANSI_BLUE_BACKGROUND = "\u001B[44m";
     public static final String ANSI_WHITE_BACKGROUND = "\u001B[47m";
 
-    // Threads which the program can use to
-    private List<TurnCalculator> threads;
-    // How many physical threads the system has access to
+    // How many of the predicted replies of the opponent are searched while the opponent is thinking
+    public static final int PONDER_REPLIES = 3;
+    // The system property that overrides the path of the tuned weights
+    public static final String WEIGHTS_PROPERTY = "kathedral.weights";
+    // The path of the tuned weights, if the property is not set
+    public static final String DEFAULT_WEIGHTS_PATH = "weights.properties";
+    // The keys of the strategies in the weights file
+    public static final String DEFENSIVE_KEY = "defensive";
+    public static final String AGGRESSIVE_KEY = "aggressive";
+    // The weights of the strategies, if there are no tuned weights
+    public static final String DEFAULT_DEFENSIVE_WEIGHTS = "-1.0,1.0,1.0,0.8,-1.0";
+    public static final String DEFAULT_AGGRESSIVE_WEIGHTS = "-2.0,1.0,1.0,0.2,-0.2";
+    // How many of the best placements the reactions of the opponent are calculated for, if not set otherwise
+    public static final int DEFAULT_TOP_K = 256;
+    // The memory budget of the cache of the features of the placements in megabytes, if no cache is shared
+    public static final int DEFAULT_FEATURE_CACHE_MEGABYTES = 16;
+
+    // Work-stealing pool that runs the calculations of every turn, created once for the whole game
+    private ForkJoinPool pool;
+    // How many threads the pools of the ai have
     private Integer processors;
+    // How many threads the pools of the next game have
+    private int threads = Runtime.getRuntime().availableProcessors();
+    // The memory budget of the feature cache and the table of the endgame in megabytes, split between both
+    private int tableMegabytes = DEFAULT_FEATURE_CACHE_MEGABYTES + EndgameSolver.DEFAULT_TABLE_MEGABYTES;
     // The weights that are used to find the best placement from a collection of placements
     private WeightContainer weights;
-    // How many times the thread iteration should take place
+    // The weights of the defensive strategy
+    private final WeightContainer defensiveWeights;
+    // The weights of the aggressive strategy
+    private final WeightContainer aggressiveWeights;
+    // The stride between the placements of one thread iteration, the iterations fill the gaps as long as time is left
     private Integer iterateOver;
+    // The time budget of a single turn in milliseconds
+    private long timeLimit;
+    // The point in time at which the current turn has to be finished
+    private Deadline deadline;
     // Score which decides if the ai must play aggressive of defensive
     private Double evaluate;
+    // The footprints of every building at every position, calculated once at the start of the game
+    private FootprintTable footprints;
+    // The footprints that fit onto the board, updated with the changes since the last turn
+    private MoveIndex moveIndex;
+    // The placements of the current player and of the opponent, reused by every turn
+    private CandidateBuffer ownCandidates;
+    private CandidateBuffer opponentCandidates;
+    // The placements of each shard of the buildings, for each player, which are concatenated into the buffers above
+    private CandidateBuffer[] ownShards;
+    private CandidateBuffer[] opponentShards;
+    // The evaluators that rate the placements of each shard, for each player
+    private CaptureEvaluator[] ownEvaluators;
+    private CaptureEvaluator[] opponentEvaluators;
+    // The state each thread of the pool makes the placements on, reset from the board the workers react to
+    private ThreadLocal<SearchState> searchStates;
+    // If the ai keeps searching the predicted replies of the opponent after its own turn
+    private boolean pondering;
+    // Hashing of the boards, to find the pondered board that matches the actual one
+    private Zobrist zobrist;
+    // The boards that have been searched while the opponent was thinking, by their hash. Every search on the
+    // opponent's time fills a map of its own, which the next turn swaps out as a whole.
+    private AtomicReference<Map<Long, PonderResult>> pondered;
+    // Pool that searches on the opponent's time, apart from the pool of the turns, created once pondering starts
+    private ForkJoinPool ponderPool;
+    // The tasks of the running search on the opponent's time
+    private List<Future<?>> ponderTasks;
+    // Cancels the running search on the opponent's time
+    private AtomicBoolean ponderCancelled;
+    // The reactions of the opponent that are already known for the current turn, by the placement they react to
+    private Map<Placement, List<PlacementData>> knownReactions;
+    // The placements for the first boards of the game, generated offline
+    private OpeningBook book;
+    // Exact search for the end of the game
+    private EndgameSolver endgame;
+    // The amount of buildings that each player may have left at most for the end of the game to be solved exactly
+    private int endgamePieces = EndgameSolver.DEFAULT_PIECES;
+    // The amount of free fields, below which the end of the game is solved exactly
+    private int endgameCells = EndgameSolver.DEFAULT_CELLS;
+    // The counters and the durations of the phases of every turn
+    private final Metrics metrics = new Metrics();
+    // How many of the best placements the reactions of the opponent are calculated for
+    private int topK = DEFAULT_TOP_K;
+    // How the scores of the reactions to a placement are combined
+    private Ranking.Aggregation aggregation = Ranking.Aggregation.MAX;
+    // The features of the reactions of the opponent, by the board and the placement, kept over the whole game
+    private FeatureCache featureCache;
+
+    // Constructors
+    // ------------
+
+    /**
+     * Create the ai with the tuned weights of the weights file, or with the default weights if there is no file
+     */
+    public NewAi() {
+        this(loadWeights(DEFENSIVE_KEY, DEFAULT_DEFENSIVE_WEIGHTS), loadWeights(AGGRESSIVE_KEY, DEFAULT_AGGRESSIVE_WEIGHTS));
+    }
+
+    public NewAi(WeightContainer defensiveWeights, WeightContainer aggressiveWeights) {
+        this.defensiveWeights = defensiveWeights;
+        this.aggressiveWeights = aggressiveWeights;
+    }
 
     @Override
     public String name() {
@@ -37,97 +148,316 @@ public class NewAi implements CathedralAI {
 
     @Override
     public void init(Game game) {
-        // Allocate a new thread list
-        processors = Runtime.getRuntime().availableProcessors();
-        threads = new ArrayList<>(Math.min(processors, 2));
+        // Allocate the pool for all the calculations of the game
+        processors = threads;
+        pool = new ForkJoinPool(processors);
         iterateOver = 4;
+        timeLimit = Deadline.DEFAULT_BUDGET_MILLIS;
+        footprints = FootprintTable.create(game);
+        moveIndex = new MoveIndex(footprints);
+        ownCandidates = new CandidateBuffer(footprints);
+        opponentCandidates = new CandidateBuffer(footprints);
+        // Half of the processors for each player, but a shard has at least one building
+        int shards = Math.max(1, Math.min(footprints.getBuildings().size(), processors / 2));
+        ownShards = new CandidateBuffer[shards];
+        opponentShards = new CandidateBuffer[shards];
+        ownEvaluators = new CaptureEvaluator[shards];
+        opponentEvaluators = new CaptureEvaluator[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            ownShards[shard] = new CandidateBuffer(footprints);
+            opponentShards[shard] = new CandidateBuffer(footprints);
+            ownEvaluators[shard] = new CaptureEvaluator(footprints);
+            opponentEvaluators[shard] = new CaptureEvaluator(footprints);
+        }
+        searchStates = ThreadLocal.withInitial(() -> new SearchState(footprints));
+        zobrist = new Zobrist(footprints);
+        pondered = new AtomicReference<>(new ConcurrentHashMap<>());
+        ponderTasks = Collections.synchronizedList(new ArrayList<>());
+        knownReactions = new HashMap<>();
+        book = OpeningBook.open(footprints, zobrist);
+        int endgameMegabytes = Math.max(1, tableMegabytes / 2);
+        endgame = new EndgameSolver(footprints, zobrist, endgamePieces, endgameCells, endgameMegabytes);
+        // A cache that has been shared with this ai is kept, so that its entries survive the game
+        if (featureCache == null) {
+            featureCache = new FeatureCache(Math.max(1, tableMegabytes - endgameMegabytes));
+        }
         // Set the default values for the weights
         defensiv();
     }
 
     @Override
     public void stopAI() {
+        if (Log.INFO) {
+            Log.info("Metrics of " + name() + ":\n" + metrics.report());
+        }
+        stopPondering();
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        if (ponderPool != null) {
+            ponderPool.shutdownNow();
+        }
     }
 
     @Override
     public Placement takeTurn(Game game) {
         // 0. Fetch the start time of the function
         long start = System.nanoTime();
+        deadline = Deadline.in(timeLimit);
+        // The opponent has decided, thus the search on its time is over
+        stopPondering();
         Game copy = game.copy();
+        // The first boards of the game have been searched offline
+        Placement bookPlacement = book.lookup(copy);
+        if (bookPlacement != null) {
+            Log.info("Take the placement of the opening book");
+            metrics.count("book.hits", 1);
+            metrics.time("turn", start);
+            if (pondering) {
+                startPondering(copy, bookPlacement);
+            }
+            return bookPlacement;
+        }
+        // The end of the game is solved exactly, with half of the budget, so that the heuristic can still finish
+        if (endgame.applies(copy)) {
+            Placement solved = endgame.solve(copy, deadline.fraction(0.5));
+            if (solved != null) {
+                if (Log.INFO) {
+                    Log.info("Solved the end of the game with " + endgame.getNodes() + " boards, final score difference "
+                            + endgame.getValue());
+                }
+                metrics.count("endgame.nodes", endgame.getNodes());
+                metrics.time("turn", start);
+                if (pondering) {
+                    startPondering(copy, solved);
+                }
+                return solved;
+            }
+            // The search is exact, thus there is no placement for the heuristic to find either
+            if (endgame.getOutcome() == EndgameSolver.Outcome.PASS) {
+                metrics.count("endgame.nodes", endgame.getNodes());
+                metrics.time("turn", start);
+                skip();
+                return null;
+            }
+            Log.warn("The end of the game could not be solved in time");
+        }
         evaluate(copy);
+        PonderResult ponderResult = takePonderResult(copy);
 
         PlacementData bestPlacement;
-        System.out.println(ANSI_GREEN + "[LOG] Capture percepts" + ANSI_RESET);
+        Log.debug("Capture percepts");
         // Get the percept:
         // ---------------
-        Set<PlacementData> possibles = new HashSet<>();
-        Set<PlacementData> opponentsPlacements = new HashSet<>();
+        CandidateBuffer possibles;
+        CandidateBuffer opponentsPlacements;
         // Check if the opponents next placement would result in a captured region
         // ------------------------------------------------------------------------
         // 1. Assume the position of the opponent
-        System.out.println(ANSI_GREEN + "[LOG] Calculate possible positions" + ANSI_RESET);
+        Log.debug("Calculate possible positions");
+        long phase = System.nanoTime();
         // 2. Fetch the possible movements of the opponent after this turn
         // Check the positions that are possible right now:
         // ------------------------------------------------
         // Test all buildings
         // Test every position on the board and filter any turn that is not possible
-        calculatePossiblesAndOpponentsPlacements(copy, opponentsPlacements, possibles);
-
+        if (ponderResult != null) {
+            // The actual board has been searched while the opponent was thinking
+            if (Log.INFO) {
+                Log.info("Reuse the pondered board with " + knownReactions.size() + " known reactions");
+            }
+            metrics.count("ponder.hits", 1);
+            opponentsPlacements = ponderResult.opponentPlacements;
+            possibles = ponderResult.possibles;
+        } else {
+            // Only the footprints around the placements since the last turn have to be checked again
+            moveIndex.sync(copy);
+            opponentsPlacements = opponentCandidates;
+            possibles = ownCandidates;
+            calculatePossiblesAndOpponentsPlacements(copy, opponentsPlacements, possibles);
+        }
+        metrics.time("generation", phase);
+        metrics.sample("candidates.own", possibles.size());
+        metrics.sample("candidates.opponent", opponentsPlacements.size());
+
+        // abort, as there are no placements possible!
+        if (possibles.isEmpty()) {
+            skip();
+            return null;
+        }
         // We don't have to calculate anything else if the field is empty
         if (!copy.getBoard().getPlacedBuildings().isEmpty()) {
-            // 2. Filter for the positions that would capture regions
-            Set<PlacementData> finalPlacements = getOverlappingPlacements(copy, opponentsPlacements, possibles);
-
-            System.out.println(ANSI_GREEN + "[LOG] Calculate optimal position" + ANSI_RESET);
-            // Calculate the average positions that the opponent would capture at each position
-            calculatePreventedCaptures(finalPlacements, opponentsPlacements);
-            // Add all possibles to the finals that have just been calculated
-            finalPlacements.addAll(possibles);
+            Log.debug("Calculate optimal position");
+            // 2. Calculate the regions that the opponent would capture at the position of each placement
+            calculatePreventedCaptures(possibles, opponentsPlacements);
 
             // Apply rule-set on possible turns:
             // ---------------------------------
-
-            // abort, as there are no placements possible!
-            if (finalPlacements.isEmpty()) {
-                skip();
-                return null;
-            }
-            bestPlacement = calculateFinalPlacement(copy, finalPlacements);
+            bestPlacement = calculateFinalPlacement(copy, possibles);
         } else {
             // Get a random placement of the list
             bestPlacement = getRandomPlacement(possibles);
         }
-        // Print out the time it took to calculate this action
-        long endTime = System.nanoTime();
-        printTime(start, endTime);
+        // Log the time it took to calculate this action
+        long endTime = metrics.time("turn", start);
+        if (Log.INFO) {
+            Log.info("The turn took " + (endTime - start) / 1000000 + " milliseconds");
+        }
         // Print confirmation for the finished calculations
-        System.out.println(ANSI_GREEN + "[LOG] Done" + ANSI_RESET);
+        Log.debug("Done");
 
-//        System.out.println(bestPlacement.toWeightedString(weights));
-//        System.out.println(iterateOver);
-//        System.out.println(weights);
+        if (pondering) {
+            startPondering(copy, bestPlacement.placement);
+        }
         return bestPlacement.placement;
     }
 
+    /**
+     * Set the time budget of a single turn. The turn returns the best placement of the last iteration that has been
+     * completed within the budget.
+     *
+     * @param timeLimit the budget in milliseconds
+     */
+    @Override
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Limit the threads of the pools of the turns and of the search on the opponent's time, and the memory of the
+     * feature cache and the table of the endgame, which get half of the budget each. A feature cache that has been
+     * shared with this ai keeps its size.
+     *
+     * @param threads   the amount of threads of each pool
+     * @param megabytes the memory budget of the tables
+     */
+    @Override
+    public void limitResources(int threads, int megabytes) {
+        ResourceLimited.checkLimits(threads, megabytes);
+        this.threads = threads;
+        this.tableMegabytes = megabytes;
+    }
+
+    /**
+     * Enable or disable the search on the opponent's time. While pondering, the ai keeps searching the boards after
+     * the most likely replies of the opponent, and reuses the results if the opponent chooses one of them.
+     *
+     * @param pondering true, to search on the opponent's time
+     */
+    public void setPondering(boolean pondering) {
+        this.pondering = pondering;
+        if (!pondering) {
+            stopPondering();
+        }
+    }
+
+    /**
+     * Set the thresholds below which the end of the game is solved exactly instead of with the heuristic. Takes
+     * effect with the next game.
+     *
+     * @param pieces the amount of buildings that each player may have left to place at most
+     * @param cells  the amount of free fields on the board
+     */
+    public void setEndgameThreshold(int pieces, int cells) {
+        this.endgamePieces = pieces;
+        this.endgameCells = cells;
+    }
+
+    /**
+     * Set how many of the best placements the reactions of the opponent are calculated for. The placements are
+     * selected by their own score, before the reactions are known.
+     *
+     * @param topK the amount of placements, at least 1
+     */
+    public void setTopK(int topK) {
+        if (topK < 1) {
+            throw new IllegalArgumentException("At least one placement is needed, but there were " + topK);
+        }
+        this.topK = topK;
+    }
+
+    /**
+     * Set how the scores of the reactions of the opponent to a placement are combined: the best reaction assumes a
+     * perfect opponent, the average and the worst reaction a weaker one
+     *
+     * @param aggregation the combination of the scores
+     */
+    public void setAggregation(Ranking.Aggregation aggregation) {
+        this.aggregation = aggregation;
+    }
+
+    /**
+     * Share a cache of the features of the placements with this ai, for example between the ais of the games of a
+     * tuning run. The boards that repeat between the games then do not have to check their regions again, whatever
+     * the weights of the ais are. The ais have to hash the boards with the same seed.
+     *
+     * @param featureCache the cache to use from the next game on
+     */
+    public void setFeatureCache(FeatureCache featureCache) {
+        this.featureCache = featureCache;
+    }
+
+    /**
+     * Get the counters and the durations of the phases of the turns so far: the generation of the placements, the
+     * prediction of the opponent's reactions, the selection, and the amount of candidates in each of them
+     *
+     * @return the metrics of this ai
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     public void defensiv() {
-        weights = new WeightContainer(-1.0f, 1.0f, 1.0f, .8f, -1.0f);
+        weights = defensiveWeights;
     }
 
     /**
      * An aggressive strategies that captures as many regions as possible and tries to get the highest score delta
      */
     public void aggressive() {
-        weights = new WeightContainer(-2.0f, 1.0f, 1.0f, 0.2f, -0.2f);
+        weights = aggressiveWeights;
+    }
+
+    // Tuned weights
+    // -------------
+
+    /**
+     * Read the weights file at the path of the system property, or at the default path
+     *
+     * @return the weights of the strategies as comma separated values, empty if there is no file
+     */
+    static Properties loadWeightsFile() {
+        Properties properties = new Properties();
+        Path path = Path.of(System.getProperty(WEIGHTS_PROPERTY, DEFAULT_WEIGHTS_PATH));
+        if (Files.isRegularFile(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            } catch (IOException e) {
+                Log.error("The weights " + path + " can not be read: " + e.getMessage());
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Get the weights of a strategy from the weights file
+     *
+     * @param key      the key of the strategy
+     * @param defaults the weights to take if the file does not contain the strategy
+     * @return the weights of the strategy
+     */
+    private static WeightContainer loadWeights(String key, String defaults) {
+        return WeightContainer.parse(loadWeightsFile().getProperty(key, defaults));
     }
 
     /**
      * Calculate the best placements for a given set of placement data
      *
      * @param copy            the copy of the game on which to operate
-     * @param finalPlacements the final placements to check the future for
+     * @param finalPlacements the placements of the current player, with their prevented captures
      * @return the best placement according to a score function
      */
-    public PlacementData calculateFinalPlacement(Game copy, Set<PlacementData> finalPlacements) {
+    public PlacementData calculateFinalPlacement(Game copy, CandidateBuffer finalPlacements) {
         // 0. Setup:
         // ---------
         // Take a realistic amount of processors from the system for this application
@@ -136,26 +466,33 @@ public class NewAi implements CathedralAI {
         // The data for the opponents possible reactions
         Map<PlacementData, List<PlacementData>> opponentData = new HashMap<>();
 
-        // 1. Select the placement that has the highest point value
-        List<PlacementData> highestScorePlacement = finalPlacements
-                .stream()
-                .sorted(Comparator.comparing(placementData -> placementData.getScore(weights)))
-                .toList();
+        // 1. Select the placements that have the highest point value, with the score of each calculated only once
+        List<PlacementData> highestScorePlacement = selectTop(finalPlacements, topK);
 
         // Get the size of the list so that the loop variable can be accurately determined
         int finalListSize = highestScorePlacement.size();
         // Iterate over the list for the amount of processors available, and with at least 1 thread
         int loop = Math.max(Math.min(finalListSize, availableProcessors), 1);
 
-        System.out.println(ANSI_GREEN + "[LOG] For each placement, predict the opponents possible reaction" + ANSI_RESET);
+        Log.debug("For each placement, predict the opponents possible reaction");
+        long phase = System.nanoTime();
 
         // Iterate over the best placements and look into what the opponent might possibly react with,
         // and fill those reactions into a list
         Map<WeightContainer, PlacementData> weightContainerPlacementDataMap = calculateOpponentsReactionsForGivenWeights(copy, iterateOver, loop, opponentWorkers, opponentData, highestScorePlacement);
 
+        phase = metrics.time("reactions", phase);
+        metrics.sample("candidates.reactions", opponentData.size());
+
         Map<PlacementData, Double> opponentPlacementsToScoreDelta = mapOpponentResultsToPlacements(opponentData);
+        // Not even the first iteration finished in time, thus the placement with the highest own score is taken
+        if (opponentPlacementsToScoreDelta.isEmpty()) {
+            metrics.count("reactions.timeouts", 1);
+            return highestScorePlacement.get(finalListSize - 1);
+        }
         // Choose the placement as the best, that has the lowest gain for the opponent in the next turn:
         PlacementData bestPlacement = calculateOptimalPlacement(opponentPlacementsToScoreDelta);
+        metrics.time("selection", phase);
 
         // Get the weight for the best placement
         return bestPlacement;
@@ -169,24 +506,7 @@ public class NewAi implements CathedralAI {
      * @return
      */
     WeightContainer calculateNewAverageWeight(Map<WeightContainer, PlacementData> weightContainerPlacementDataMap, int n) {
-        WeightContainer container = new WeightContainer();
-        int numberElements = weightContainerPlacementDataMap.size();
-        // Adds the number of elements on top of each other
-        for (Map.Entry<WeightContainer, PlacementData> c : weightContainerPlacementDataMap.entrySet()) {
-            container.opponentWeight += c.getKey().opponentWeight;
-            container.scoreWeight += c.getKey().scoreWeight;
-            container.captureWeight += c.getKey().captureWeight;
-            container.scoreDeltaWeight += c.getKey().scoreDeltaWeight;
-            container.preventWeight += c.getKey().preventWeight;
-        }
-        // Divide by the number of elements
-        container.opponentWeight /= numberElements;
-        container.scoreWeight /= numberElements;
-        container.captureWeight /= numberElements;
-        container.scoreDeltaWeight /= numberElements;
-        container.preventWeight /= numberElements;
-
-        return container;
+        return WeightContainer.average(weightContainerPlacementDataMap.keySet());
     }
 
     /**
@@ -197,15 +517,17 @@ public class NewAi implements CathedralAI {
      */
     public Map<PlacementData, Double> mapOpponentResultsToPlacements(Map<PlacementData, List<PlacementData>> opponentData) {
         Map<PlacementData, Double> opponentPlacementsToScoreDelta = new HashMap<>();
-        // For each map position, calculate the best score the opponent will get
+        double[] scores = new double[0];
+        // For each map position, combine the scores the opponent will get with the configured aggregation
         for (Map.Entry<PlacementData, List<PlacementData>> entry : opponentData.entrySet()) {
-            // Calculate the average response of the opponent and store it in another list, or a field in data
-            opponentPlacementsToScoreDelta.put(entry.getKey(), entry
-                    .getValue()
-                    .stream()
-                    .mapToDouble(value -> value.getScore(weights))
-                    .max()
-                    .orElse(0.0f));
+            List<PlacementData> reactions = entry.getValue();
+            if (scores.length < reactions.size()) {
+                scores = new double[reactions.size()];
+            }
+            for (int i = 0; i < reactions.size(); i++) {
+                scores[i] = reactions.get(i).getScore(weights);
+            }
+            opponentPlacementsToScoreDelta.put(entry.getKey(), aggregation.aggregate(scores, reactions.size()));
         }
         // For each placement key in the map, set the opponent score to the map value
         opponentPlacementsToScoreDelta.entrySet().forEach(entry -> entry.getKey().setOpponentScore(entry.getValue()));
@@ -222,15 +544,81 @@ public class NewAi implements CathedralAI {
      * @return the optimal placement according to a function
      */
     public PlacementData calculateOptimalPlacement(Map<PlacementData, Double> opponentPlacementsToScoreDelta) {
-        // Sor the list according to
-        List<PlacementData> finalData = opponentPlacementsToScoreDelta.entrySet().stream()
-                .map(Map.Entry::getKey)
-                .sorted(Comparator.comparing(placementData -> placementData.getScore(weights)))
-                .toList();
-        return finalData.get(finalData.size() - 1);
+        // Only the best placement is needed, thus a single pass replaces the sort
+        PlacementData best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (PlacementData placement : opponentPlacementsToScoreDelta.keySet()) {
+            double score = placement.getScore(weights);
+            if (best == null || score >= bestScore) {
+                best = placement;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Select the placements with the highest score. Only the selected placements are turned into placement data, and
+     * only they are ordered.
+     *
+     * @param candidates the placements to select from
+     * @param k          the amount of placements to select
+     * @return the selected placements, sorted ascending by their score like the lists of the selection
+     */
+    List<PlacementData> selectTop(CandidateBuffer candidates, int k) {
+        int[] top = topSlots(candidates, k);
+        List<PlacementData> selected = new ArrayList<>(top.length);
+        for (int i = top.length - 1; i >= 0; i--) {
+            selected.add(placementData(candidates, top[i]));
+        }
+        return selected;
+    }
+
+    /**
+     * Get the slots of the placements with the highest score, with the score of every placement calculated once
+     *
+     * @param candidates the placements to select from
+     * @param k          the amount of placements to select
+     * @return the slots of the selected placements, best first
+     */
+    private int[] topSlots(CandidateBuffer candidates, int k) {
+        double[] keys = new double[candidates.size()];
+        for (int slot = 0; slot < keys.length; slot++) {
+            keys[slot] = candidates.score(slot, weights.scoreDeltaWeight, weights.scoreWeight, weights.captureWeight,
+                    weights.preventWeight, weights.opponentWeight);
+        }
+        return Ranking.top(keys, k);
     }
 
+    /**
+     * Create the placement data of a candidate
+     *
+     * @param candidates the buffer of the candidate
+     * @param slot       the slot of the candidate
+     * @return the placement data with the features of the candidate
+     */
+    private static PlacementData placementData(CandidateBuffer candidates, int slot) {
+        PlacementData data = new PlacementData(candidates.placement(slot), candidates.positions(slot));
+        data.newDiff(0, candidates.deltaScore(slot));
+        data.prevent = candidates.prevent(slot);
+        return data;
+    }
 
+    /**
+     * Calculate the reactions of the opponent to the best placements in iterations. The first iteration takes every
+     * (iterateOver + 1)-th placement from the top of the list, and each further iteration takes the placements right
+     * after those, until every placement has been checked or the deadline of the turn is reached. The placements of an
+     * iteration are tasks of the pool, and the next iteration is only submitted once all of them are done. The
+     * reactions of an iteration that did not finish before the deadline are discarded.
+     *
+     * @param copy                  the game on which to operate
+     * @param iterateOver           the stride between the placements of one iteration, minus one
+     * @param loop                  the amount of placements of one iteration
+     * @param opponentWorkers       the list to hold the workers of an iteration
+     * @param opponentData          the mapping of placement to the opponents reactions to fill
+     * @param highestScorePlacement the placements, sorted ascending by their score
+     * @return the mapping of the used weights to the checked placement
+     */
     public Map<WeightContainer, PlacementData> calculateOpponentsReactionsForGivenWeights(
             Game copy,
             final Integer iterateOver,
@@ -239,50 +627,95 @@ public class NewAi implements CathedralAI {
             Map<PlacementData, List<PlacementData>> opponentData,
             List<PlacementData> highestScorePlacement) {
         Map<WeightContainer, PlacementData> weightContainerPlacementDataHashMap = new HashMap<>();
-        for (int i = 0; i < iterateOver; i++) {
+        // Cancels the workers of this turn, once the deadline is reached
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        // The board the workers make the placements on, which is only read from now on
+        SearchState root = rootState(copy);
+        long rootHash = zobrist.hash(copy);
+        // The reactions of the current iteration, the placements that its workers react to and their pending results
+        Map<PlacementData, List<PlacementData>> iterationData = new HashMap<>();
+        List<PlacementData> workerPlacements = new ArrayList<>(loop);
+        List<Future<List<PlacementData>>> results = new ArrayList<>(loop);
+        final int stride = iterateOver + 1;
+        for (int i = 0; !deadline.isExpired(); i++) {
+            // The block of placements that is covered by the strides, and the offset inside a stride
+            final int block = (i / stride) * stride * loop;
+            final int offset = i % stride;
+            boolean submitted = false;
             for (int j = 0; j < loop; j++) {
+                final int index = highestScorePlacement.size() - (block + stride * j + offset) - 1;
                 // If the bounds are unrealistic, break out from this inner loop
-                if ((highestScorePlacement.size() - (iterateOver * j + j) - 1) < 0) {
+                if (index < 0) {
                     break;
                 }
-                final Integer finalI = i;
-                final Integer finalJ = j;
-                // Calculate the best placements for any given weight in the initials list
-                PlacementData placement = highestScorePlacement
-                        .stream()
-                        .sorted(Comparator.comparing(placementData -> placementData.getScore(this.weights)))
-                        .collect(Collectors.toList())
-                        .get(highestScorePlacement.size() - (iterateOver * j + j) - 1);
+                // The list is already sorted by the score of the current weights
+                PlacementData placement = highestScorePlacement.get(index);
                 // Put the {Weight, Placement} map into the container
                 weightContainerPlacementDataHashMap.put(this.weights, placement);
-                // Apply the placement
-                copy.takeTurn(placement.getPlacement());
-                // Calculate the next turn of the opponent
-                opponentWorkers.add(new OpponentWorker(copy));
-                // Create a link between the data storage in the thread and the belonging
-                opponentData.put(placement, opponentWorkers.get(j).getData());
-                // Reset the previously generated turn
-                copy.undoLastTurn();
-
+                submitted = true;
+                // The reaction has already been calculated while the opponent was thinking
+                List<PlacementData> known = knownReactions.get(placement.getPlacement());
+                if (known != null) {
+                    iterationData.put(placement, known);
+                    continue;
+                }
+                // Calculate the next turn of the opponent in the pool, the worker applies the placement itself
+                OpponentWorker worker = new OpponentWorker(root, rootHash, placement.getPlacement(), cancelled);
+                opponentWorkers.add(worker);
+                workerPlacements.add(placement);
+                results.add(pool.submit(worker));
             }
-            // Fill the work calculators
-            for (OpponentWorker worker : opponentWorkers) {
-                worker.start();
+            // Every placement has been checked
+            if (!submitted) {
+                break;
             }
-            // Wait for those threads to finish execution
-            for (OpponentWorker worker : opponentWorkers) {
-                try {
-                    worker.join();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            // Wait for the workers of the iteration, but never longer than the deadline
+            if (!collectReactions(workerPlacements, results, iterationData)) {
+                // The iteration did not finish in time, thus its reactions are discarded
+                break;
             }
+            opponentData.putAll(iterationData);
+            iterationData.clear();
             // Last iteration, thus we clear the opponent workers
             opponentWorkers.clear();
+            workerPlacements.clear();
+            results.clear();
         }
+        // Stop the workers that did not make it in time
+        cancelled.set(true);
+        results.forEach(result -> result.cancel(false));
+        opponentWorkers.clear();
         return weightContainerPlacementDataHashMap;
     }
 
+    /**
+     * Wait for the reactions of the workers of an iteration, but never longer than the deadline of the turn
+     *
+     * @param workerPlacements the placements that the workers react to
+     * @param results          the pending results of the workers, in the same order
+     * @param iterationData    the mapping of placement to the opponents reactions to fill
+     * @return true, if every worker of the iteration finished
+     */
+    private boolean collectReactions(List<PlacementData> workerPlacements, List<Future<List<PlacementData>>> results,
+                                     Map<PlacementData, List<PlacementData>> iterationData) {
+        for (int k = 0; k < results.size(); k++) {
+            try {
+                // Create a link between the data of the worker and the placement it reacted to
+                iterationData.put(workerPlacements.get(k), results.get(k).get(deadline.remainingNanos(), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                // The deadline is reached
+                return false;
+            } catch (ExecutionException e) {
+                Log.error("A reaction of the opponent failed", e);
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void evaluate(Game game) {
         if (evaluate == null) {
             evaluate = 0.0; // We start out by playing defensive
@@ -309,224 +742,231 @@ public class NewAi implements CathedralAI {
         if (evaluate < 0.5) {
             // Defensive
             defensiv();
-            System.out.println("[LOG] Selection: DEFENSIVE" + ANSI_RESET);
+            Log.debug("Selection: DEFENSIVE");
         } else {
             // Aggressive
             aggressive();
-            System.out.println(ANSI_CYAN + "[LOG] Selection: AGGRESSIVE" + ANSI_RESET);
+            Log.debug("Selection: AGGRESSIVE");
         }
     }
+
     /**
-     * Set up the worker threads for a given placement and calculate the opponents reactions with it
+     * Get a random placement of the candidates
      *
-     * @param copy
-     * @param i
-     * @param j
-     * @param opponentWorkers
-     * @param opponentData
-     * @param highestScorePlacement
+     * @param candidates the placements to get the random element from, which must not be empty
+     * @return the random element
      */
-    public void setupOpponentWorkerThread(
-            Game copy,
-            int i, int j,
-            int iterateOver,
-            List<OpponentWorker> opponentWorkers,
-            Map<PlacementData, List<PlacementData>> opponentData,
-            List<PlacementData> highestScorePlacement) {
-        // Fetch the placement
-        PlacementData placement = highestScorePlacement.get(highestScorePlacement.size() - (iterateOver * j + j) - 1);
-        // Apply the placement
-        copy.takeTurn(placement.getPlacement());
-        // Calculate the next turn of the opponent
-        opponentWorkers.add(new OpponentWorker(copy));
-        // Create a link between the data storage in the thread and the belonging
-        opponentData.put(placement, opponentWorkers.get(j).getData());
-        // Reset the previously generated turn
-        copy.undoLastTurn();
+    public PlacementData getRandomPlacement(CandidateBuffer candidates) {
+        return placementData(candidates, (int) (candidates.size() * Math.random()));
     }
 
     /**
-     * Get a random element from a set of placement data
+     * Calculate the regions that the opponent would capture with its best placement at the position of each own
+     * placement, which the own placement prevents by taking the position first. The best capture of the opponent at
+     * each origin is collected in a single pass over its placements.
      *
-     * @param placementDataSet the set to get the random element from
-     * @return the random element
+     * @param finalPlacements     the placements of the current player, whose prevented captures are set
+     * @param opponentsPlacements the placements of the opponent
      */
-    public PlacementData getRandomPlacement(Set<PlacementData> placementDataSet) {
-        return placementDataSet.stream().skip((int) (placementDataSet.size() * Math.random())).findFirst().get();
+    public void calculatePreventedCaptures(CandidateBuffer finalPlacements, CandidateBuffer opponentsPlacements) {
+        double[] captures = new double[CellMask.CELLS];
+        Arrays.fill(captures, Double.NEGATIVE_INFINITY);
+        for (int slot = 0; slot < opponentsPlacements.size(); slot++) {
+            int cell = origin(opponentsPlacements.code(slot));
+            captures[cell] = Math.max(captures[cell], opponentsPlacements.positions(slot));
+        }
+        for (int slot = 0; slot < finalPlacements.size(); slot++) {
+            double capture = captures[origin(finalPlacements.code(slot))];
+            // No placement of the opponent has its origin at the position
+            finalPlacements.setPrevent(slot, capture == Double.NEGATIVE_INFINITY ? 0.0 : capture);
+        }
+    }
+
+    private static int origin(int code) {
+        return CellMask.index(FootprintTable.x(code), FootprintTable.y(code));
     }
 
+
+    // Pondering
+    // ---------
+
     /**
-     * Calculate the regions that each opposing placement would capture at each position, and apply that using a
-     * aggregate function [min, max, avg,...] to the final placement data
+     * Start the search on the opponent's time for the board after the own placement
      *
-     * @param finalPlacements
-     * @param opponentsPlacements
+     * @param game      the game before the own placement
+     * @param placement the placement that has been chosen for this turn
      */
-    public void calculatePreventedCaptures(Set<PlacementData> finalPlacements, Set<PlacementData> opponentsPlacements) {
-        finalPlacements.forEach(placed -> placed.prevent =
-                opponentsPlacements.stream()
-                        .filter(data -> data.placement.position().equals(placed.placement.position()))
-                        .mapToDouble(PlacementData::getPositions)
-                        .max()
-                        .orElse(0.0)
-        );
+    private void startPondering(Game game, Placement placement) {
+        Game next = game.copy();
+        if (!next.takeTurn(placement)) {
+            return;
+        }
+        if (ponderPool == null || ponderPool.isShutdown()) {
+            ponderPool = new ForkJoinPool(processors);
+        }
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        Map<Long, PonderResult> results = new ConcurrentHashMap<>();
+        ponderCancelled = cancelled;
+        pondered.set(results);
+        ponderTasks.add(ponderPool.submit(() -> ponder(next, cancelled, results)));
     }
 
     /**
-     * Filter for all the placements that have overlapping positions in the possibles and the possibles for the opponent
-     *
-     * @param opponentsPlacements the opponents placements
-     * @param possibles           the possible placements for the current player
-     * @return
+     * Cancel the search on the opponent's time. Finished results are kept until the next turn takes them.
      */
-    public Set<PlacementData> getOverlappingPlacements(Game copy, Set<PlacementData> opponentsPlacements, Set<PlacementData> possibles) {
-        opponentsPlacements.removeIf(placementData -> placementData.positions == -1);
-        // Get the set of all positions
-        Set<Position> opponentPositions = (opponentsPlacements
-                .stream()
-                .map(var -> var.getPlacement().position()))
-                .collect(Collectors.toSet());
-
-        // Create the set union of the possible placements that the current player can make and the region-capturing
-        // placements our opponent could make
-        Set<Position> playerPositions = possibles.stream()
-                .map(var -> var.getPlacement().position())
-                .collect(Collectors.toSet());
-
-        // Get the overlapping positions of the placements that both players took this turn
-        opponentPositions.retainAll(playerPositions);
-
-        Set<PlacementData> finalPlacements = new HashSet<>();
-        // Calculate all the position that
-        Set<PlacementData> finalPlacements1 = finalPlacements;
-
-        opponentPositions.forEach(pos -> checkPlacementData(pos.x(), pos.y(), copy, finalPlacements1, true));
-
-        // If there are no more overlapping positions, then take the optimal data form the player
-        if (finalPlacements.size() == 0 || finalPlacements == null) {
-            finalPlacements = possibles;
-        } else {
-            finalPlacements = finalPlacements1;
+    private void stopPondering() {
+        if (ponderCancelled != null) {
+            ponderCancelled.set(true);
+        }
+        if (ponderTasks != null) {
+            synchronized (ponderTasks) {
+                ponderTasks.forEach(task -> task.cancel(false));
+                ponderTasks.clear();
+            }
         }
+    }
 
-        return finalPlacements;
+    /**
+     * Take the pondered result that matches the board of the game, and discard all the others
+     *
+     * @param game the game of the current turn
+     * @return the pondered result of the board, or null if the board has not been pondered
+     */
+    private PonderResult takePonderResult(Game game) {
+        // A search that is still running only writes into the map that is swapped out here, which is then dropped
+        PonderResult result = pondered.getAndSet(new ConcurrentHashMap<>()).get(zobrist.hash(game));
+        // Only the reactions that have been finished before the cancellation are in the result
+        knownReactions = result != null ? new HashMap<>(result.reactions) : new HashMap<>();
+        return result;
     }
 
+    /**
+     * Search the boards after the most likely replies of the opponent. The placements of both players are calculated
+     * for each board first, and then the reactions of the opponent to the best own placements are submitted to the
+     * pool, best placement first, until the search is cancelled.
+     *
+     * @param game      the game after the own placement, with the opponent to move
+     * @param cancelled set, once the opponent has decided
+     * @param pondered  the map of this search, to put the searched boards into
+     */
+    private void ponder(Game game, AtomicBoolean cancelled, Map<Long, PonderResult> pondered) {
+        CaptureEvaluator evaluator = new CaptureEvaluator(footprints);
+        CandidateBuffer replies = new CandidateBuffer(footprints);
+        replies.generate(game, evaluator);
+        List<Game> boards = new ArrayList<>();
+        List<PonderResult> results = new ArrayList<>();
+        // The best placements of each board, selected before the turn can change the buffers of the result
+        List<int[]> candidates = new ArrayList<>();
+        for (int reply : topSlots(replies, PONDER_REPLIES)) {
+            Game board = game.copy();
+            if (cancelled.get() || !board.takeTurn(replies.placement(reply))) {
+                continue;
+            }
+            CandidateBuffer possibles = new CandidateBuffer(footprints);
+            possibles.generate(board, evaluator);
+            CandidateBuffer opponentPlacements = new CandidateBuffer(footprints);
+            opponentPlacements.generate(forfeited(board), evaluator);
+            PonderResult result = new PonderResult(possibles, opponentPlacements);
+            candidates.add(topSlots(possibles, topK));
+            // The turn may already have taken the results while the placements were calculated
+            if (cancelled.get()) {
+                return;
+            }
+            pondered.put(zobrist.hash(board), result);
+            boards.add(board);
+            results.add(result);
+        }
+        for (int i = 0; i < results.size(); i++) {
+            PonderResult result = results.get(i);
+            SearchState root = rootState(boards.get(i));
+            long rootHash = zobrist.hash(boards.get(i));
+            for (int slot : candidates.get(i)) {
+                if (cancelled.get()) {
+                    return;
+                }
+                Placement candidate = result.possibles.placement(slot);
+                OpponentWorker worker = new OpponentWorker(root, rootHash, candidate, cancelled);
+                ponderTasks.add(ponderPool.submit(() -> {
+                    List<PlacementData> reactions = worker.call();
+                    // A cancelled worker may have stopped before it checked every building
+                    if (!cancelled.get()) {
+                        result.reactions.put(candidate, reactions);
+                    }
+                }));
+            }
+        }
+    }
 
     // Utility Methods
     // ---------------
 
-    public void calculatePossiblesAndOpponentsPlacements(Game game, Set<PlacementData> opponentPlacements, Set<PlacementData> possibles) {
-        threads.add(0, new TurnCalculator(game, true, 0, 10));
-        threads.add(1, new TurnCalculator(game, false, 0, 10));
-        // Start the threads
-        threads.forEach(Thread::start);
-        // Wait for each thread to finish execution
-        threads.forEach(worker -> {
-            try {
-                worker.join();
-            } catch (InterruptedException e) {
-                System.out.println(ANSI_RED + "[ERROR] The " + ANSI_RESET);
-                e.printStackTrace();
-            }
-        });
-        // Fetch the data from the threads
-        opponentPlacements.addAll(threads.get(0).getData());
-        possibles.addAll(threads.get(1).getData());
-        // Clear the thread list, as it is no longer needed
-        threads.clear();
-    }
-
     /**
-     * Print the time that this function took to execute and print it in a more pretty way.
+     * Calculate the placements of both players into their buffers. The buildings are split into shards, and every
+     * shard of every player is a task of the pool, except for the first shard of the current player, which the calling
+     * thread calculates. Each shard writes into a buffer of its own, and the buffers are only concatenated once all
+     * shards are done. All shards take the footprints that fit from the index of the board, which is only read.
      *
-     * @param start the start time point of execution
-     * @param end   the end time point of execution
+     * @param game               the game to calculate the placements for
+     * @param opponentPlacements the buffer to fill with the placements of the opponent
+     * @param possibles          the buffer to fill with the placements of the current player
      */
-    private void printTime(long start, long end) {
-        long duration = (end - start) / 1000000; // Duration in milliseconds
-        String color;
-        // Function took no longer than 1000 milliseconds/1 second
-        if (duration < 1000) {
-            color = ANSI_GREEN;
+    public void calculatePossiblesAndOpponentsPlacements(Game game, CandidateBuffer opponentPlacements, CandidateBuffer possibles) {
+        Game opponent = forfeited(game);
+        final int shards = ownShards.length;
+        List<Future<?>> results = new ArrayList<>(2 * shards);
+        for (int shard = 0; shard < shards; shard++) {
+            final int current = shard;
+            results.add(pool.submit(() -> opponentShards[current].generate(opponent, opponentEvaluators[current], moveIndex, current, shards)));
+            if (shard > 0) {
+                results.add(pool.submit(() -> ownShards[current].generate(game, ownEvaluators[current], moveIndex, current, shards)));
+            }
         }
-        // Function took no longer than 10000 milliseconds/29 seconds
-        else if (duration < 10000) {
-            color = ANSI_YELLOW;
-        } else if (duration < 29000) {
-            color = ANSI_CYAN;
+        ownShards[0].generate(game, ownEvaluators[0], moveIndex, 0, shards);
+        // Wait for all shards and concatenate their placements
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            Log.error("The calculation of the placements failed", e);
         }
-        // Function took too long
-        else {
-            color = ANSI_RED;
+        opponentPlacements.clear();
+        possibles.clear();
+        for (int shard = 0; shard < shards; shard++) {
+            opponentPlacements.addAll(opponentShards[shard]);
+            possibles.addAll(ownShards[shard]);
         }
-        System.out.println(color + "[LOG] The function took " + duration + " milliseconds, or " + (duration / 1000.0) + " Seconds!" + ANSI_RESET);
     }
 
     /**
-     * Call this method in order to do nothing
+     * Create the state of a board that the workers reset their own states from
+     *
+     * @param game the game to take the board from
+     * @return the state of the board, which must not be changed once the workers read it
      */
-    private void skip() {
-        System.out.println(ANSI_GREEN + "[LOG] Skip, as there are no valid placements no more!" + ANSI_RESET);
+    private SearchState rootState(Game game) {
+        SearchState root = new SearchState(footprints);
+        root.reset(game);
+        return root;
     }
 
     /**
-     * Calculate the placables that can be put onto the field for the current player
+     * Get a copy of a game in which the opponent is to move on the same board
      *
-     * @param game the game we are working on
-     * @param from the start of the x coordinates to check
-     * @param to   the end of the x coordinates to check
-     * @return the among of possible placables on this board for the current player
+     * @param game the game to copy
+     * @return the copy with the turn passed to the opponent
      */
-    private static Set<PlacementData> getPlacements(Game game, int from, int to, boolean getRegions) {
-        Set<PlacementData> possibles = new HashSet<>();
-        for (int x = from; x < to; x++) {
-            for (int y = 0; y < 10; y++) {
-                checkPlacementData(x, y, game, possibles, getRegions);
-            }
-        }
-        return possibles;
+    static Game forfeited(Game game) {
+        Game copy = game.copy();
+        copy.forfeitTurn();
+        return copy;
     }
 
     /**
-     * Check the current position and return all blocks that fit there
-     *
-     * @param x    the x coordinate
-     * @param y    the y coordinate
-     * @param game the game to test for
-     * @param data the placement data to write to on success
+     * Call this method in order to do nothing
      */
-    private static void checkPlacementData(int x, int y, Game game, Set<PlacementData> data, boolean getRegions) {
-        // Fetch the current player
-        Color player = game.getCurrentPlayer();
-        int oldScore = getScore(game, player);
-        // Check, if this current field is applicable for checking it out, specifically if and only if the field belongs
-        // to the current player or to no one at all
-        for (Building building : game.getPlacableBuildings()) {
-            // Test all turnables of the building
-            for (Direction direction : building.getTurnable().getPossibleDirections()) {
-                Placement possPlacement = new Placement(x, y, direction, building);
-                // Take a turn using the "fast" method without checking the regions
-                if (game.takeTurn(possPlacement, true)) {
-                    // Check the number of regions that this placement would provide
-                    game.undoLastTurn();
-                    // Fetch the regions that are placed at this point
-                    Set<Position> prevRegions = checkRegions(game.getBoard().getField(), player);
-                    // Check the regions
-                    game.takeTurn(possPlacement, false);
-                    Set<Position> newRegions = checkRegions(game.getBoard().getField(), player);
-                    // Get the amount of regions that have been added
-                    int newRegionSize = newRegions.size() - prevRegions.size();
-                    // Get the current score of the previous player
-                    int newScore = getScore(game, player);
-                    PlacementData placement = new PlacementData(possPlacement, getRegions ? newRegionSize : 0);
-                    placement.newDiff(oldScore, newScore);
-                    // We can take a turn, thus we add it to the "possible" set
-                    data.add(placement);
-                    game.undoLastTurn();
-                }
-            }
-        }
+    private void skip() {
+        Log.info("Skip, as there are no valid placements no more!");
     }
 
     /**
@@ -545,27 +985,6 @@ public class NewAi implements CathedralAI {
         }
     }
 
-    /**
-     * Check, if there are regions captured for this player
-     *
-     * @param field  the field to check
-     * @param player the player to check for
-     */
-    private static Set<Position> checkRegions(Color[][] field, Color player) {
-        Set<Position> newPositions = new HashSet<>();
-        for (int i = 0; i < 10; i++) {
-            for (int j = 0; j < 10; j++) {
-                Position curr = new Position(i, j);
-                // If the field is a capture of the current player, and if the field is not yet captured
-                if (field[i][j].getId() == (player.getId() + 1)) {
-                    // Add that to the oldPosit
-                    newPositions.add(curr);
-                }
-            }
-        }
-        return newPositions;
-    }
-
     /**
      * Print the board to the console in a more stylish fashion
      *
@@ -609,33 +1028,6 @@ public class NewAi implements CathedralAI {
         int scoreDifference = whiteScore - blackScore;
         return player.equals(Color.White) ? scoreDifference : -scoreDifference;
     }
-    /**
-     * Get the amount of regions captured by the current player at any given point in time
-     *
-     * @param field  the board to check on
-     * @param player the player's regions to check for
-     * @return the amount of regions the current player currently has
-     */
-    private static int checkRegionsSize(Color[][] field, Color player) {
-        int regions = 0;
-        for (int i = 0; i < 10; i++) {
-            for (int j = 0; j < 10; j++) {
-                // If the field is a capture of the current player, and if the field is not yet captured
-                if (field[i][j].getId() == (player.getId() + 1)) regions++;
-            }
-        }
-        return regions;
-    }
-    /**
-     * Get the intersection of two sets of positions
-     *
-     * @param a the first position set
-     * @param b the second position set
-     * @return the set intersection
-     */
-    private Set<Position> getSetIntersection(Collection<Position> a, Collection<Position> b) {
-        return a.stream().filter(position -> b.contains(position)).collect(Collectors.toSet());
-    }
     /**
      * Data class that contains all the data for a placement that are relevant for it's evaluation
      */
@@ -755,99 +1147,96 @@ public class NewAi implements CathedralAI {
             return this.placement;
         }
 
+        /**
+         * Two placement data are equal, if they describe the same placement. The rating is not part of it, as it is
+         * changed while the data is already part of sets and maps.
+         *
+         * @param obj the object to compare to
+         * @return true, if the object is placement data of the same placement
+         */
         @Override
         public boolean equals(Object obj) {
             if (obj instanceof PlacementData) {
                 PlacementData testPlacement = (PlacementData) obj;
-                return this.placement.equals(testPlacement)
-                        && this.positions == testPlacement.positions
-                        && this.deltaScore == testPlacement.deltaScore
-                        && this.prevent == testPlacement.prevent;
+                return this.placement.equals(testPlacement.placement);
             } else {
                 return false;
             }
         }
-    }
-
-    /**
-     * Thread class that calculates the next turn for a given player and game
-     */
-    static class TurnCalculator extends Thread {
-        // The game for which this thread works
-        private final Game game;
-        // The data for this thread;
-        private Set<PlacementData> data;
-        // from where to check the field
-        private final Integer from;
-        // up to where to check the field
-        private final Integer to;
-
-        /**
-         * Create a new worker thread that would calculate the next possible position placement set for the player
-         *
-         * @param game         the game to work on, and create a copy for
-         * @param changePlayer if the player to be checked is the next one
-         * @param from         the start of the x coordinates to check
-         * @param to           the end of the x coordinates to check
-         */
-        TurnCalculator(Game game, boolean changePlayer, int from, int to) {
-            // Copy this game for this thread
-            this.game = game.copy();
-            if (changePlayer) this.game.forfeitTurn();
-            this.from = from;
-            this.to = to;
-        }
-
-        TurnCalculator(Game game, boolean changePlayer) {
-            this(game, changePlayer, 0, 10);
-        }
 
         @Override
-        public void run() {
-            data = NewAi.getPlacements(game, from, to, true);
+        public int hashCode() {
+            return placement.hashCode();
         }
+    }
 
-        public Set<PlacementData> getData() {
-            return this.data;
+    /**
+     * The result of the search on a board that the opponent might create with its next placement
+     */
+    private static class PonderResult {
+        // The placements of the player on the board
+        private final CandidateBuffer possibles;
+        // The placements of the opponent on the board
+        private final CandidateBuffer opponentPlacements;
+        // The finished reactions of the opponent, by the placement they react to
+        private final Map<Placement, List<PlacementData>> reactions;
+
+        PonderResult(CandidateBuffer possibles, CandidateBuffer opponentPlacements) {
+            this.possibles = possibles;
+            this.opponentPlacements = opponentPlacements;
+            this.reactions = new ConcurrentHashMap<>();
         }
     }
 
-    protected class OpponentWorker extends Thread {
-        // The game that this thread operates on
-        private final Game game;
-        // Data this thread generates
+    /**
+     * Task that calculates the placements of the opponent that would capture regions
+     */
+    protected class OpponentWorker implements Callable<List<PlacementData>> {
+        // The board before the placement, which the state of the thread is reset to
+        private final SearchState root;
+        // The placement that the opponent reacts to, or null if the opponent is to move on the root board
+        private final FootprintTable.Footprint placement;
+        // The hash of the board before the placement
+        private final long rootHash;
+        // Data this task generates
         private final List<PlacementData> data;
-
-        // Store the hull placements for each player, and calulate them each anew at the start of the ki
-        private final Map<Color, Set<Position>> hullPlayerPositions;
-        // Store the turn placements for each player and calculate them each anew at the start of the ki
-        private final Map<Color, Set<Position>> turnPlayerPositions;
-        // Store the positions that the turn player can place their placements to
-        private final Map<Color, Set<Position>> turnPlayerPlacablePositions;
+        // Set, once the result of this task is no longer needed
+        private final AtomicBoolean cancelled;
 
         public OpponentWorker(Game game) {
-            this.game = game.copy();
-            data = new ArrayList<PlacementData>();
-
-            turnPlayerPlacablePositions = new HashMap<>();
-            hullPlayerPositions = new HashMap<>();
-            turnPlayerPositions = new HashMap<>();
-
-            updateTurn(game);
-            updateHull(game);
-            updateTurnPlayerPlacables(game);
+            this(rootState(game), zobrist.hash(game), null, new AtomicBoolean(false));
         }
 
-        @Override
-        public void run() {
-            // Generate all the placement data that is possible for the opponent
-            Set<PlacementData> opponentPlacements = calculateCapturingPlacements(game, game.getCurrentPlayer());
-            this.data.addAll(opponentPlacements);
-            // Sort this list according to it's score, so that the main thread does not have to do this later
-            this.data.sort(Comparator.comparing(placementData -> placementData.getScore(weights)));
+        public OpponentWorker(SearchState root, long rootHash, Placement placement, AtomicBoolean cancelled) {
+            this.root = root;
+            this.placement = placement != null ? footprints.get(placement) : null;
+            this.rootHash = rootHash;
+            this.cancelled = cancelled;
+            data = new ArrayList<PlacementData>();
         }
 
-        public List<PlacementData> getData() {
+        @Override
+        public List<PlacementData> call() {
+            // Make the placement on the state of this thread, instead of on a copy of the game
+            SearchState state = searchStates.get();
+            state.reset(root);
+            if (placement != null && !state.make(placement)) {
+                return this.data;
+            }
+            try {
+                // The hash of the board the opponent reacts on, which keys the features of its reactions, so that
+                // the same board is found again from another placement, a later turn or the search on the
+                // opponent's time
+                long boardHash = placement != null ? rootHash ^ state.hashChange(zobrist) : rootHash;
+                // Generate all the placement data that is possible for the opponent
+                Set<PlacementData> opponentPlacements = calculateCapturingPlacements(state, state.getCurrentPlayer(), boardHash);
+                this.data.addAll(opponentPlacements);
+            } finally {
+                if (placement != null) {
+                    state.unmake();
+                }
+            }
+            // The scores of the reactions are only combined, thus the list does not have to be sorted
             return this.data;
         }
 
@@ -855,188 +1244,68 @@ public class NewAi implements CathedralAI {
         // -------------------------
 
         /**
-         * calculate all the placements that would capture a specific region for a given player
+         * calculate all the placements that would capture a specific region for a given player. The features of a
+         * placement are taken from the cache, if the placement has been rated on the same board before.
          *
-         * @param game   the game to work on
-         * @param player the player to calculate for
+         * @param state     the state to work on, with the player to move
+         * @param player    the player to calculate for
+         * @param boardHash the Zobrist hash of the board of the state
          * @return the placements that are calculated
          */
-        private Set<PlacementData> calculateCapturingPlacements(Game game, Color player) {
+        Set<PlacementData> calculateCapturingPlacements(SearchState state, Color player, long boardHash) {
             // 0. Initialization
-            // Get the current score and regions for current player
-            int currentScore = getScore(game, player);
-            int oldRegions = checkRegionsSize(game.getBoard().getField(), player);
+            // Get the current score and the hull cells of the current player
+            int currentScore = state.getScore(player);
+            CellMask hull = state.hull(player, new CellMask());
+            CellMask owned = state.mask(player.subColor());
+            int regions = owned.cardinality();
+            int hits = 0;
+            int misses = 0;
             // Iterate over all possible placements
             Set<PlacementData> placementDataList = new HashSet<>();
-            for (Building building : game.getPlacableBuildings(player)) {
-                for (Direction direction : building.getTurnable().getPossibleDirections()) {
-                    for (int x = 0; x < 10; x++) {
-                        for (int y = 0; y < 10; y++) {
-                            Placement placement = new Placement(new Position(x, y), direction, building);
-                            // Positions of the placement shifted by the position
-                            Set<Position> placementPositions = placement
-                                    .form()
-                                    .stream()
-                                    .map(p -> p.plus(placement.position()))
-                                    .collect(Collectors.toSet());
-                            // Find all positions that are in the placement and the hull of the current player
-                            Set<Position> intersection = getSetIntersection(this.hullPlayerPositions.get(player), placementPositions);
-                            // There are intersection positions, thus we can check this placement
-                            if (intersection.size() != 0 && game.takeTurn(placement, false)) {
-                                game.undoLastTurn();
-                                game.takeTurn(placement, false);
-
-                                int newScore = getScore(game, player);
-                                int newRegions = checkRegionsSize(game.getBoard().getField(), player);
-
-                                PlacementData newPlacement = new PlacementData(placement,  newScore - currentScore);
-                                newPlacement.deltaScore = newScore - currentScore;
-                                placementDataList.add(newPlacement);
-                                game.undoLastTurn();
-                            }
-                        }
-                    }
+            // Buildings that the player owns more than once only have to be tested once, thus iterate over the
+            // distinct buildings of the table instead of the placable buildings of the game
+            for (int id = 0; id < footprints.getBuildings().size(); id++) {
+                // The turn is already over
+                if (cancelled.get()) {
+                    break;
                 }
-            }
-            return placementDataList;
-        }
-
-        /**
-         * For both players, update the hull position set
-         *
-         * @param copy the game on which to operate
-         * @before Make sure that the updateTurn method is called before this method!
-         */
-        private void updateHull(Game copy) {
-            // Black:
-            this.hullPlayerPositions.put(Color.Black, getPlayerHull(copy, Color.Black));
-            // White
-            this.hullPlayerPositions.put(Color.White, getPlayerHull(copy, Color.White));
-            // Blue
-            this.hullPlayerPositions.put(Color.Blue, getPlayerHull(copy, Color.Blue));
-        }
-
-        /**
-         * For both players, update the turn position set
-         *
-         * @param copy the game on which to operate
-         */
-        private void updateTurn(Game copy) {
-            // Black
-            this.turnPlayerPositions.put(Color.Black, getPlayerTurn(copy, Color.Black));
-            this.turnPlayerPositions.put(Color.Black_Owned, getPlayerTurn(copy, Color.Black_Owned));
-            // White
-            this.turnPlayerPositions.put(Color.White, getPlayerTurn(copy, Color.White));
-            this.turnPlayerPositions.put(Color.White_Owned, getPlayerTurn(copy, Color.White_Owned));
-            // Blue
-            this.turnPlayerPositions.put(Color.Blue, getPlayerTurn(copy, Color.Blue));
-        }
-
-        private void updateTurnPlayerPlacables(Game copy) {
-            Color player = copy.getCurrentPlayer();
-            Set<Position> playerPlacablePositions = new HashSet<>();
-            for (int i = 0; i < 10; i++) {
-                for (int j = 0; j < 10; j++) {
-                    Color clr = copy.getBoard().getField()[i][j];
-                    if (clr.equals(player.subColor()) || clr.equals(Color.None)) {
-                        playerPlacablePositions.add(new Position(i, j));
+                // The player has no building of this kind left
+                if (state.left(player, id) == 0) {
+                    continue;
+                }
+                // Every direction and origin of the building that is on the board, once for each set of fields
+                for (FootprintTable.Footprint footprint : footprints.canonicalFootprints(footprints.building(id))) {
+                    // There are positions in the placement and the hull of the current player, thus we can check this placement
+                    if (!hull.intersects(footprint.getForm())) {
+                        continue;
+                    }
+                    long key = FeatureCache.key(boardHash, footprint.getCode());
+                    long features = featureCache.probe(key);
+                    int positions;
+                    int delta;
+                    if (features != FeatureCache.MISS) {
+                        // Only placements that could be made have been stored
+                        positions = FeatureCache.positions(features);
+                        delta = FeatureCache.deltaScore(features);
+                        hits++;
+                    } else if (state.make(footprint)) {
+                        positions = owned.cardinality() - regions;
+                        delta = state.getScore(player) - currentScore;
+                        featureCache.store(key, positions, delta);
+                        state.unmake();
+                        misses++;
+                    } else {
+                        continue;
                     }
+                    PlacementData newPlacement = new PlacementData(footprint.getPlacement(), positions);
+                    newPlacement.deltaScore = delta;
+                    placementDataList.add(newPlacement);
                 }
             }
-            this.turnPlayerPlacablePositions.put(copy.getCurrentPlayer(), playerPlacablePositions);
-        }
-        /**
-         * Get the placements for a given player
-         *
-         * @param game   the game to get the placements from
-         * @param player the player to get the plcements for
-         * @return the placements of a given player
-         */
-        public Set<Placement> getPlayerPlacements(Game game, Color player) {
-            return game.getBoard().getPlacedBuildings().stream().filter(placement -> placement.building().getColor().equals(player)).collect(Collectors.toSet());
-        }
-
-        // Position methods
-        // ----------------
-
-        /**
-         * Calculate all positions in a game that belong to a given player
-         *
-         * @param game   the game to get the positions from
-         * @param player the player to get the positions for
-         * @return the position set for a given player
-         */
-        public Set<Position> getPlayerTurn(Game game, Color player) {
-            // Get all placements for a given player
-            Set<Placement> placements = getPlayerPlacements(game, player);
-            // Get all the positions for a given player
-            Set<Position> positions = new HashSet<>();
-            for (Placement placement : placements) {
-                // Only take this placement into account if it belongs to the player 'player'
-                Set<Position> placementTurn = calculateTurn(placement, placement.position());
-                positions.addAll(placementTurn);
-            }
-            return positions;
-        }
-
-        private Set<Position> calculateTurn(Placement placementData, Position p) {
-            return calculateTurn(placementData)
-                    .stream()
-                    .map(position -> position.plus(p))
-                    .collect(Collectors.toSet());
-        }
-
-        private Set<Position> calculateTurn(Placement placementData) {
-            return new HashSet<>(placementData.building().turn(placementData.direction()));
-        }
-        // Hull Methods
-        // ------------
-
-        /**
-         * Calculate the hull around a placement shifted by a placement position
-         *
-         * @param placementData the data to calculate the hull around
-         * @param p             the position to shift by
-         * @return the shifted hull around a set of placements
-         */
-        private Set<Position> calculateHull(Placement placementData, Position p) {
-            return calculateHull(placementData)
-                    .stream()
-                    .map(position -> position.plus(p))
-                    .collect(Collectors.toSet());
-        }
-
-        /**
-         * Calculate the hull of a set of positions
-         *
-         * @return the hull around the positions
-         */
-        private Set<Position> calculateHull(Placement placementData) {
-            return new HashSet<>(placementData.building().corners(placementData.direction()));
-        }
-
-        /**
-         * For a given player p, get the positions that represent the hull of each placement on the field
-         *
-         * @param game   the game to take the placements from
-         * @param player the player to take the
-         * @return the set of all positions
-         * @brief Calculate all hulls positions for given player
-         * @author malte quandt
-         * @version 1.0
-         */
-        public Set<Position> getPlayerHull(Game game, Color player) {
-            // Get all placements for a given player
-            Set<Placement> placements = getPlayerPlacements(game, player);
-            // Get all the positions for a given player
-            Set<Position> positions = new HashSet<>();
-            for (Placement placement : placements) {
-                // Only take this placement into account if it belongs to the player 'player'
-                Set<Position> placementHull = calculateHull(placement, placement.position());
-                positions.addAll(placementHull);
-            }
-            positions.removeAll(this.turnPlayerPositions.get(player));
-            return positions;
+            metrics.count("features.hits", hits);
+            metrics.count("features.misses", misses);
+            return placementDataList;
         }
     }
 
@@ -1097,7 +1366,7 @@ class WeightContainer {
         this.captureWeight = container.captureWeight + ThreadLocalRandom.current().nextDouble(start, end);
         this.scoreWeight = container.scoreWeight + ThreadLocalRandom.current().nextDouble(start, end);
         this.scoreDeltaWeight = container.scoreDeltaWeight + ThreadLocalRandom.current().nextDouble(start, end);
-        this.preventWeight = container.scoreWeight + ThreadLocalRandom.current().nextDouble(start, end);
+        this.preventWeight = container.preventWeight + ThreadLocalRandom.current().nextDouble(start, end);
         this.opponentWeight = container.opponentWeight + ThreadLocalRandom.current().nextDouble(start, end);
     }
 
@@ -1111,11 +1380,62 @@ class WeightContainer {
         this.captureWeight = container.captureWeight * ThreadLocalRandom.current().nextDouble(start, end);
         this.scoreWeight = container.scoreWeight * ThreadLocalRandom.current().nextDouble(start, end);
         this.scoreDeltaWeight = container.scoreDeltaWeight * ThreadLocalRandom.current().nextDouble(start, end);
-        this.preventWeight = container.scoreWeight * ThreadLocalRandom.current().nextDouble(start, end);
+        this.preventWeight = container.preventWeight * ThreadLocalRandom.current().nextDouble(start, end);
         this.opponentWeight = container.opponentWeight * ThreadLocalRandom.current().nextDouble(start, end);
     }
 
 
+    /**
+     * Calculate the average of each weight over several containers
+     *
+     * @param containers the containers to average
+     * @return the container with the average weights
+     */
+    public static WeightContainer average(Collection<WeightContainer> containers) {
+        WeightContainer container = new WeightContainer();
+        int numberElements = containers.size();
+        // Adds the number of elements on top of each other
+        for (WeightContainer c : containers) {
+            container.opponentWeight += c.opponentWeight;
+            container.scoreWeight += c.scoreWeight;
+            container.captureWeight += c.captureWeight;
+            container.scoreDeltaWeight += c.scoreDeltaWeight;
+            container.preventWeight += c.preventWeight;
+        }
+        // Divide by the number of elements
+        container.opponentWeight /= numberElements;
+        container.scoreWeight /= numberElements;
+        container.captureWeight /= numberElements;
+        container.scoreDeltaWeight /= numberElements;
+        container.preventWeight /= numberElements;
+
+        return container;
+    }
+
+    /**
+     * Parse five comma separated weights, in the order of the constructor
+     *
+     * @param values the weights
+     * @return the container of the weights
+     */
+    public static WeightContainer parse(String values) {
+        String[] parts = values.split(",");
+        if (parts.length != 5) {
+            throw new IllegalArgumentException("Five weights are needed, but there were " + parts.length);
+        }
+        return new WeightContainer(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()),
+                Double.parseDouble(parts[2].trim()), Double.parseDouble(parts[3].trim()), Double.parseDouble(parts[4].trim()));
+    }
+
+    /**
+     * Format the weights as five comma separated values, which can be read by {@link #parse(String)}
+     *
+     * @return the formatted weights
+     */
+    public String format() {
+        return scoreDeltaWeight + "," + scoreWeight + "," + captureWeight + "," + preventWeight + "," + opponentWeight;
+    }
+
     @Override
     public String toString() {
         return this.captureWeight + " : " + this.scoreWeight + " : " + this.scoreDeltaWeight + " : " + this.preventWeight + " : " + this.opponentWeight;
@@ -0,0 +1,140 @@
+package de.fhkiel.ki.examples.gui.withAi;
+
+import de.fhkiel.ki.cathedral.*;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.CandidateBuffer;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.CaptureEvaluator;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.FootprintTable;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.OpeningBook;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Ranking;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Symmetry;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Zobrist;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Command line tool that generates the opening book offline. Starting at the empty board, the best placement of every
+ * board is searched with {@link NegamaxAI} and written to the book. The boards after the best placements of the
+ * player to move are searched as well, up to a given amount of placements, so that the book covers the likely
+ * replies of an opponent. Boards that are mirror or rotated images of a searched board are not searched again.
+ * <p>
+ * Usage: {@code OpeningBookGenerator [file] [plies] [width] [milliseconds per board]}
+ */
+public final class OpeningBookGenerator {
+    // The weights that order the placements that are followed
+    private static final WeightContainer WEIGHTS = new WeightContainer(-1.0f, 1.0f, 1.0f, .8f, -1.0f);
+
+    // Instance variables
+    // ------------------
+
+    // The footprints of the buildings
+    private final FootprintTable footprints;
+    // Hashing of the boards, the same as the one of the ai that reads the book
+    private final Zobrist zobrist;
+    // The symmetries of the board, the book is keyed on the canonical images
+    private final Symmetry symmetry;
+    // The search for the best placement of a board
+    private final NegamaxAI search;
+    // The placements of the board that is expanded, and the evaluator that rates them
+    private final CandidateBuffer candidates;
+    private final CaptureEvaluator evaluator;
+    // The amount of placements that the book covers
+    private final int plies;
+    // The amount of placements that are followed on every board
+    private final int width;
+    // The placement of every searched board in its canonical image, by the canonical hash of the board
+    private final Map<Long, Integer> moves;
+
+    private OpeningBookGenerator(int plies, int width, long millis) {
+        Game game = new Game();
+        footprints = FootprintTable.create(game);
+        zobrist = new Zobrist(footprints);
+        symmetry = new Symmetry(footprints);
+        search = new NegamaxAI();
+        search.init(game.copy());
+        search.setTimeLimit(millis);
+        candidates = new CandidateBuffer(footprints);
+        evaluator = new CaptureEvaluator(footprints);
+        this.plies = plies;
+        this.width = width;
+        moves = new HashMap<>();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path path = Path.of(args.length > 0 ? args[0] : OpeningBook.DEFAULT_PATH);
+        int plies = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        long millis = args.length > 3 ? Long.parseLong(args[3]) : 10000;
+
+        OpeningBookGenerator generator = new OpeningBookGenerator(plies, width, millis);
+        generator.expand(new Game(), 0);
+        generator.moves.values().removeIf(code -> code < 0);
+        OpeningBook.write(path, generator.moves);
+        System.out.println("[LOG] Wrote " + generator.moves.size() + " boards to " + path);
+        generator.search.stopAI();
+    }
+
+    /**
+     * Search the best placement of a board, and continue with the boards after the best placements
+     *
+     * @param game the game to search
+     * @param ply  the amount of placements that lead to the board
+     */
+    private void expand(Game game, int ply) {
+        if (ply >= plies) {
+            return;
+        }
+        int transform = symmetry.canonical(game);
+        long hash = zobrist.canonicalHash(game, symmetry, transform);
+        if (!moves.containsKey(hash)) {
+            Placement best = search.takeTurn(game.copy());
+            if (best == null) {
+                return;
+            }
+            // The mirror image of a chiral building does not exist, such a placement can not be stored in the book
+            FootprintTable.Footprint image = symmetry.transform(transform, footprints.get(best));
+            moves.put(hash, image != null ? image.getCode() : -1);
+        }
+        // The best placement of the book is followed in any case, the others are possible replies of an opponent
+        Set<Placement> followed = new LinkedHashSet<>();
+        int code = moves.get(hash);
+        if (code >= 0) {
+            followed.add(symmetry.transform(Symmetry.inverse(transform), footprints.get(code)).getPlacement());
+        }
+        // The placement of the book is at most one of the best placements, thus the best width placements are enough
+        for (Placement placement : bestPlacements(game, width)) {
+            if (followed.size() >= width) {
+                break;
+            }
+            followed.add(placement);
+        }
+        for (Placement placement : followed) {
+            Game next = game.copy();
+            if (next.takeTurn(placement)) {
+                expand(next, ply + 1);
+            }
+        }
+    }
+
+    /**
+     * Get the placements of the player to move with the highest weighted score, without ordering all of them
+     *
+     * @param game the game to get the placements for
+     * @param k    the amount of placements to get
+     * @return the placements, best first
+     */
+    private List<Placement> bestPlacements(Game game, int k) {
+        candidates.generate(game, evaluator);
+        double[] keys = new double[candidates.size()];
+        for (int slot = 0; slot < keys.length; slot++) {
+            keys[slot] = candidates.score(slot, WEIGHTS.scoreDeltaWeight, WEIGHTS.scoreWeight, WEIGHTS.captureWeight,
+                    WEIGHTS.preventWeight, WEIGHTS.opponentWeight);
+        }
+        List<Placement> placements = new ArrayList<>(k);
+        for (int slot : Ranking.top(keys, k)) {
+            placements.add(candidates.placement(slot));
+        }
+        return placements;
+    }
+}
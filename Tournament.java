@@ -0,0 +1,392 @@
+package de.fhkiel.ki.examples.gui.withAi;
+
+import de.fhkiel.ki.ai.CathedralAI;
+import de.fhkiel.ki.cathedral.*;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Deadline;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.EchoAI;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.ResourceLimited;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.TimeLimited;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Command line tool that plays many games between two ais without the gui, and reports the win rate, the Elo
+ * difference with its confidence interval, and the percentiles of the time per placement. The ais switch colors after
+ * every game, and the games are played concurrently on a bounded pool. The ais of the games that run at once share
+ * the processors and half of the heap for their tables, instead of each ai taking all of them.
+ * <p>
+ * Usage: {@code Tournament <ai> <ai> [games] [parallel games] [milliseconds per turn]}
+ * <p>
+ * An ai is either the name of a class with a constructor without arguments, or one of
+ * {@code newai[:defensive weights:aggressive weights]}, {@code echo}, {@code negamax[:depth[:weights]]},
+ * {@code mcts[:weights]} and {@code beam[:widths[:weights]]}, where the weights are the five comma separated values of
+ * a {@link WeightContainer} and the widths of the beam per ply are separated by slashes, such as {@code 16/8/4}.
+ */
+public final class Tournament {
+    // The z value of the 95% confidence interval
+    private static final double Z_95 = 1.96;
+
+    // Instance variables
+    // ------------------
+
+    // The specifications of the two ais
+    private final String[] specs;
+    // Creates a new instance of each ai for every game
+    private final List<Supplier<CathedralAI>> factories;
+    // The time budget of a single turn in milliseconds, or 0 to keep the defaults of the ais
+    private final long timeLimit;
+    // The amount of threads each ai may search with
+    private int threads;
+    // The memory budget of the tables of each ai in megabytes
+    private int megabytes;
+    // The result of every game for the first ai: 1 for a win, 0.5 for a draw, 0 for a loss
+    private final List<Double> results;
+    // The result of every game for the first ai, when it played black
+    private final List<Double> blackResults;
+    // The duration of every placement of each ai in nanoseconds
+    private final List<List<Long>> latencies;
+    // The amount of invalid placements of each ai
+    private final int[] invalid;
+
+    private Tournament(String first, String second, long timeLimit) {
+        this.specs = new String[]{first, second};
+        this.factories = List.of(factory(first), factory(second));
+        this.timeLimit = timeLimit;
+        this.threads = Runtime.getRuntime().availableProcessors();
+        this.megabytes = tableBudget();
+        this.results = new ArrayList<>();
+        this.blackResults = new ArrayList<>();
+        this.latencies = List.of(new ArrayList<>(), new ArrayList<>());
+        this.invalid = new int[2];
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: Tournament <ai> <ai> [games] [parallel games] [milliseconds per turn]");
+            System.exit(2);
+        }
+        int games = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int parallel = args.length > 3 ? Integer.parseInt(args[3]) : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        long timeLimit = args.length > 4 ? Long.parseLong(args[4]) : 0;
+
+        Tournament tournament = new Tournament(args[0], args[1], timeLimit);
+        // The ais log every step, which is of no use with many games at once
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long start = System.nanoTime();
+        try {
+            tournament.play(games, parallel, out);
+        } finally {
+            System.setOut(out);
+        }
+        tournament.report(out, (System.nanoTime() - start) / 1000000);
+        System.exit(0);
+    }
+
+    /**
+     * Play all games on a pool of a bounded size
+     *
+     * @param games    the amount of games to play
+     * @param parallel the amount of games that are played at once
+     * @param out      the stream for the progress
+     */
+    private void play(int games, int parallel, PrintStream out) throws InterruptedException {
+        // Both ais of every game that runs at once get an equal share
+        threads = Math.max(1, Runtime.getRuntime().availableProcessors() / (2 * parallel));
+        megabytes = Math.max(1, tableBudget() / (2 * parallel));
+        ExecutorService pool = Executors.newFixedThreadPool(parallel);
+        List<Future<?>> futures = new ArrayList<>(games);
+        for (int i = 0; i < games; i++) {
+            // The first ai plays black in every even game
+            final boolean firstIsBlack = i % 2 == 0;
+            futures.add(pool.submit(() -> playGame(firstIsBlack)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                out.println(NewAi.ANSI_RED + "[ERROR] Game " + i + " failed: " + e.getCause() + NewAi.ANSI_RESET);
+            }
+            if ((i + 1) % 100 == 0) {
+                out.println("[LOG] " + (i + 1) + " of " + games + " games played");
+            }
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Play a single game between new instances of the ais, and record its result
+     *
+     * @param firstIsBlack if the first ai plays black
+     */
+    private void playGame(boolean firstIsBlack) {
+        CathedralAI first = limit(factories.get(0).get(), threads, megabytes);
+        CathedralAI second = limit(factories.get(1).get(), threads, megabytes);
+        long[][] durations = {new long[64], new long[64]};
+        int[] moves = new int[2];
+        int[] failures = new int[2];
+        Game game = play(firstIsBlack ? first : second, firstIsBlack ? second : first, timeLimit, (black, nanos, valid) -> {
+            int index = black == firstIsBlack ? 0 : 1;
+            if (moves[index] == durations[index].length) {
+                durations[index] = Arrays.copyOf(durations[index], 2 * moves[index]);
+            }
+            durations[index][moves[index]++] = nanos;
+            if (!valid) {
+                failures[index]++;
+            }
+        });
+
+        double result = result(game, firstIsBlack ? Color.Black : Color.White);
+        synchronized (this) {
+            results.add(result);
+            if (firstIsBlack) {
+                blackResults.add(result);
+            }
+            for (int i = 0; i < 2; i++) {
+                invalid[i] += failures[i];
+                for (int j = 0; j < moves[i]; j++) {
+                    latencies.get(i).add(durations[i][j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Play a game between two ais, which are initialized for the game and stopped after it
+     *
+     * @param black     the ai that plays black and places the cathedral
+     * @param white     the ai that plays white
+     * @param timeLimit the time budget of a single turn in milliseconds, or 0 to keep the defaults of the ais
+     * @param observer  is told about every placement, or null
+     * @return the finished game
+     */
+    static Game play(CathedralAI black, CathedralAI white, long timeLimit, Observer observer) {
+        Game game = new Game();
+        for (CathedralAI ai : new CathedralAI[]{black, white}) {
+            ai.init(game.copy());
+            if (timeLimit > 0 && ai instanceof TimeLimited) {
+                ((TimeLimited) ai).setTimeLimit(timeLimit);
+            }
+        }
+        try {
+            int passes = 0;
+            while (passes < 2) {
+                // Black places the cathedral
+                boolean blackToMove = !game.getCurrentPlayer().equals(Color.White);
+                long begin = System.nanoTime();
+                Placement placement = (blackToMove ? black : white).takeTurn(game.copy());
+                long duration = System.nanoTime() - begin;
+                boolean valid = true;
+                if (placement == null) {
+                    game.forfeitTurn();
+                    passes++;
+                } else if (!game.takeTurn(placement)) {
+                    // An invalid placement costs the turn
+                    valid = false;
+                    game.forfeitTurn();
+                    passes++;
+                } else {
+                    passes = 0;
+                }
+                if (observer != null) {
+                    observer.placed(blackToMove, duration, valid);
+                }
+            }
+        } finally {
+            black.stopAI();
+            white.stopAI();
+        }
+        return game;
+    }
+
+    /**
+     * Limit the threads and the table memory of an ai, if it supports it
+     *
+     * @param ai        the ai to limit, before it is initialized for a game
+     * @param threads   the amount of threads the ai may search with
+     * @param megabytes the memory budget of the tables of the ai
+     * @return the ai
+     */
+    static CathedralAI limit(CathedralAI ai, int threads, int megabytes) {
+        if (ai instanceof ResourceLimited) {
+            ((ResourceLimited) ai).limitResources(threads, megabytes);
+        }
+        return ai;
+    }
+
+    /**
+     * Get the memory that the tables of all ais may use together, which is half of the heap
+     *
+     * @return the budget in megabytes
+     */
+    static int tableBudget() {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 2 / (1024 * 1024)));
+    }
+
+    /**
+     * Get the result of a finished game for a player
+     *
+     * @param game   the finished game
+     * @param player the player to get the result for
+     * @return 1 for a win, 0.5 for a draw and 0 for a loss
+     */
+    static double result(Game game, Color player) {
+        int own = getScore(game, player);
+        int other = getScore(game, player.equals(Color.White) ? Color.Black : Color.White);
+        return own < other ? 1.0 : own > other ? 0.0 : 0.5;
+    }
+
+    /**
+     * Is told about every placement of a game
+     */
+    interface Observer {
+        /**
+         * @param black if the placement was made by black
+         * @param nanos the time the ai took for the placement
+         * @param valid false, if the game rejected the placement
+         */
+        void placed(boolean black, long nanos, boolean valid);
+    }
+
+    /**
+     * Print the results of the tournament
+     *
+     * @param out    the stream to print to
+     * @param millis the duration of the tournament
+     */
+    private synchronized void report(PrintStream out, long millis) {
+        int games = results.size();
+        double wins = results.stream().filter(result -> result == 1.0).count();
+        double draws = results.stream().filter(result -> result == 0.5).count();
+        double losses = games - wins - draws;
+        double score = games == 0 ? 0.5 : (wins + draws / 2) / games;
+        // The standard error of the mean result, with the variance of the single games
+        double variance = 0.0;
+        for (double result : results) {
+            variance += (result - score) * (result - score);
+        }
+        double error = games > 1 ? Math.sqrt(variance / (games - 1) / games) : 0.0;
+
+        out.println(NewAi.ANSI_GREEN + "[LOG] " + specs[0] + " vs " + specs[1] + ": " + games + " games in "
+                + millis / 1000 + " seconds" + NewAi.ANSI_RESET);
+        out.printf("  Wins %d, draws %d, losses %d, win rate %.1f%%, as black %.1f%%%n", (long) wins, (long) draws,
+                (long) losses, 100 * score, 100 * mean(blackResults));
+        out.printf("  Elo %s, 95%% interval [%s, %s]%n", elo(score), elo(score - Z_95 * error), elo(score + Z_95 * error));
+        for (int i = 0; i < 2; i++) {
+            long[] sorted = latencies.get(i).stream().mapToLong(Long::longValue).sorted().toArray();
+            long late = Arrays.stream(sorted).filter(nanos -> nanos > Deadline.TURN_LIMIT_MILLIS * 1000000).count();
+            out.printf("  %s: %d placements, p50 %d ms, p90 %d ms, p99 %d ms, max %d ms, %d over the limit, %d invalid%n",
+                    specs[i], sorted.length, percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                    percentile(sorted, 1.0), late, invalid[i]);
+        }
+    }
+
+    // Statistics
+    // ----------
+
+    /**
+     * Convert an expected score into an Elo difference
+     *
+     * @param score the expected score of the first ai
+     * @return the Elo difference, formatted
+     */
+    private static String elo(double score) {
+        if (score <= 0.0) {
+            return "-inf";
+        }
+        if (score >= 1.0) {
+            return "+inf";
+        }
+        return String.format("%+.0f", -400 * Math.log10(1 / score - 1));
+    }
+
+    /**
+     * Get a percentile of sorted durations, with the nearest rank
+     *
+     * @param sorted   the durations in nanoseconds, sorted ascending
+     * @param fraction the percentile as a fraction in (0, 1]
+     * @return the duration in milliseconds
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, rank)] / 1000000;
+    }
+
+    private static double mean(List<Double> values) {
+        return values.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
+    }
+
+    static int getScore(Game game, Color player) {
+        Object a = game.score().get(player);
+        if (a != null) {
+            return (int) a;
+        } else {
+            return 47;
+        }
+    }
+
+    // Specifications
+    // --------------
+
+    /**
+     * Create the factory of an ai from its specification
+     *
+     * @param spec the specification of the ai
+     * @return the factory for new instances of the ai
+     */
+    static Supplier<CathedralAI> factory(String spec) {
+        String[] parts = spec.split(":");
+        switch (parts[0].toLowerCase()) {
+            case "newai": {
+                if (parts.length > 2) {
+                    WeightContainer defensive = WeightContainer.parse(parts[1]);
+                    WeightContainer aggressive = WeightContainer.parse(parts[2]);
+                    return () -> new NewAi(defensive, aggressive);
+                }
+                return NewAi::new;
+            }
+            case "echo":
+                return EchoAI::new;
+            case "negamax": {
+                int depth = parts.length > 1 ? Integer.parseInt(parts[1]) : NegamaxAI.DEFAULT_DEPTH;
+                if (parts.length > 2) {
+                    WeightContainer weights = WeightContainer.parse(parts[2]);
+                    return () -> new NegamaxAI(depth, weights);
+                }
+                return () -> new NegamaxAI(depth);
+            }
+            case "mcts": {
+                if (parts.length > 1) {
+                    WeightContainer weights = WeightContainer.parse(parts[1]);
+                    return () -> new MctsAI(weights);
+                }
+                return MctsAI::new;
+            }
+            case "beam": {
+                int[] widths = parts.length > 1
+                        ? Arrays.stream(parts[1].split("/")).mapToInt(Integer::parseInt).toArray()
+                        : BeamAI.DEFAULT_WIDTHS;
+                if (parts.length > 2) {
+                    WeightContainer weights = WeightContainer.parse(parts[2]);
+                    return () -> new BeamAI(widths, weights);
+                }
+                return () -> new BeamAI(widths);
+            }
+            default:
+                return () -> {
+                    try {
+                        return (CathedralAI) Class.forName(spec).getDeclaredConstructor().newInstance();
+                    } catch (ReflectiveOperationException e) {
+                        throw new IllegalArgumentException("Unknown ai " + spec, e);
+                    }
+                };
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package de.fhkiel.ki.examples.gui.withAi;
+
+import de.fhkiel.ki.cathedral.*;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.FeatureCache;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Command line tool that tunes the weights of a strategy of {@link NewAi} with an evolutionary search. Every
+ * candidate of a population plays self-play games against the weights the run started with, and the candidates with
+ * the best results are the parents of the next generation: they are kept, their average is added, and the rest of
+ * the population are mutations of them. The games of a generation are played concurrently, and the ais of the games
+ * that run at once share the processors, so that the time limit of a turn means the same as in a single game.
+ * <p>
+ * Each generation is written to a checkpoint, from which an interrupted run continues, and the best weights are
+ * exported to the weights file that {@link NewAi} loads.
+ * <p>
+ * Usage: {@code WeightTuner [generations] [population] [games per candidate] [milliseconds per turn]
+ * [defensive|aggressive]}
+ */
+public final class WeightTuner {
+    // The file of the checkpoint
+    public static final String CHECKPOINT_PATH = "tuner-checkpoint.properties";
+    // The share of the population that are the parents of the next generation
+    private static final double ELITE_SHARE = 0.25;
+    // The range of the additive mutations
+    private static final double ADDITIVE_RANGE = 0.25;
+    // The range of the multiplicative mutations
+    private static final double MULTIPLICATIVE_MIN = 0.8;
+    private static final double MULTIPLICATIVE_MAX = 1.2;
+    // The range of the random candidates that keep the population diverse
+    private static final double FILL_START = -2.0;
+    private static final double FILL_END = 1.0;
+    // The memory budget of the features that all ais of the run share in megabytes
+    private static final int FEATURE_CACHE_MEGABYTES = 256;
+
+    // Instance variables
+    // ------------------
+
+    // The key of the strategy that is tuned
+    private final String target;
+    // The weights of both strategies at the start of the run, which every candidate plays against
+    private WeightContainer baselineDefensive;
+    private WeightContainer baselineAggressive;
+    // The amount of games of each candidate
+    private final int games;
+    // The time budget of a single turn in milliseconds
+    private final long timeLimit;
+    // The pool that plays the games
+    private final ExecutorService pool;
+    // The amount of threads each ai may search with
+    private final int threads;
+    // The memory budget of the tables of each ai in megabytes, besides the shared features
+    private final int megabytes;
+    // The features of the placements, shared by every ai of the run, as the games repeat many boards
+    private final FeatureCache featureCache;
+
+    private WeightTuner(String target, int games, long timeLimit, int parallel) {
+        Properties weights = NewAi.loadWeightsFile();
+        this.target = target;
+        this.baselineDefensive = WeightContainer.parse(weights.getProperty(NewAi.DEFENSIVE_KEY, NewAi.DEFAULT_DEFENSIVE_WEIGHTS));
+        this.baselineAggressive = WeightContainer.parse(weights.getProperty(NewAi.AGGRESSIVE_KEY, NewAi.DEFAULT_AGGRESSIVE_WEIGHTS));
+        this.games = games;
+        this.timeLimit = timeLimit;
+        this.pool = Executors.newFixedThreadPool(parallel);
+        // Both ais of every game that runs at once get an equal share
+        this.threads = Math.max(1, Runtime.getRuntime().availableProcessors() / (2 * parallel));
+        this.megabytes = Math.max(1, (Tournament.tableBudget() - FEATURE_CACHE_MEGABYTES) / (2 * parallel));
+        this.featureCache = new FeatureCache(FEATURE_CACHE_MEGABYTES);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int generations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int games = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        long timeLimit = args.length > 3 ? Long.parseLong(args[3]) : 500;
+        String target = args.length > 4 ? args[4] : NewAi.DEFENSIVE_KEY;
+        if (!target.equals(NewAi.DEFENSIVE_KEY) && !target.equals(NewAi.AGGRESSIVE_KEY)) {
+            throw new IllegalArgumentException("Unknown strategy " + target);
+        }
+
+        // Every game runs two ais, which search with one thread each if there are enough games
+        int parallel = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        WeightTuner tuner = new WeightTuner(target, games, timeLimit, parallel);
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            tuner.run(generations, size, out);
+        } finally {
+            System.setOut(out);
+            tuner.pool.shutdownNow();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Run the search until the given generation, continuing from the checkpoint if there is one
+     *
+     * @param generations the generation to stop at
+     * @param size        the size of the population of a new run
+     * @param out         the stream for the progress
+     */
+    private void run(int generations, int size, PrintStream out) throws IOException, InterruptedException {
+        Path checkpoint = Path.of(CHECKPOINT_PATH);
+        int generation = 0;
+        List<WeightContainer> population;
+        if (Files.isRegularFile(checkpoint)) {
+            Properties properties = load(checkpoint);
+            if (!target.equals(properties.getProperty("target"))) {
+                throw new IllegalStateException("The checkpoint tunes the " + properties.getProperty("target") + " weights");
+            }
+            generation = Integer.parseInt(properties.getProperty("generation"));
+            // The weights file already holds the exported weights, thus the baseline is taken from the checkpoint
+            baselineDefensive = WeightContainer.parse(properties.getProperty("baseline." + NewAi.DEFENSIVE_KEY));
+            baselineAggressive = WeightContainer.parse(properties.getProperty("baseline." + NewAi.AGGRESSIVE_KEY));
+            population = new ArrayList<>();
+            for (int i = 0; properties.containsKey("population." + i); i++) {
+                population.add(WeightContainer.parse(properties.getProperty("population." + i)));
+            }
+            out.println("[LOG] Continue at generation " + generation + " with " + population.size() + " candidates");
+        } else {
+            population = initialPopulation(size);
+        }
+
+        for (; generation < generations; generation++) {
+            long start = System.nanoTime();
+            double[] fitness = evaluate(population);
+            Integer[] order = new Integer[population.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(fitness[b], fitness[a]));
+            WeightContainer best = population.get(order[0]);
+            out.printf("[LOG] Generation %d: best %.3f, median %.3f, weights %s, %d seconds%n", generation,
+                    fitness[order[0]], fitness[order[order.length / 2]], best.format(), (System.nanoTime() - start) / 1000000000);
+
+            List<WeightContainer> elites = new ArrayList<>();
+            for (int i = 0; i < Math.max(2, (int) (population.size() * ELITE_SHARE)) && i < order.length; i++) {
+                elites.add(population.get(order[i]));
+            }
+            population = nextGeneration(elites, population.size());
+            export(best);
+            saveCheckpoint(checkpoint, generation + 1, population, best, fitness[order[0]]);
+        }
+    }
+
+    /**
+     * Create the population of a new run: the weights the run started with, and random candidates
+     *
+     * @param size the size of the population
+     * @return the population
+     */
+    private List<WeightContainer> initialPopulation(int size) {
+        List<WeightContainer> population = new ArrayList<>(size);
+        population.add(baseline());
+        while (population.size() < size) {
+            WeightContainer candidate = new WeightContainer();
+            candidate.fill(FILL_START, FILL_END);
+            population.add(candidate);
+        }
+        return population;
+    }
+
+    /**
+     * Create the next generation from the best candidates of the current one. The parents are kept, their average is
+     * added, one random candidate keeps the population diverse, and the rest are mutations of random parents.
+     *
+     * @param elites the best candidates, best first
+     * @param size   the size of the population
+     * @return the next generation
+     */
+    private List<WeightContainer> nextGeneration(List<WeightContainer> elites, int size) {
+        List<WeightContainer> population = new ArrayList<>(elites);
+        population.add(WeightContainer.average(elites));
+        WeightContainer random = new WeightContainer();
+        random.fill(FILL_START, FILL_END);
+        population.add(random);
+        while (population.size() < size) {
+            WeightContainer parent = elites.get(ThreadLocalRandom.current().nextInt(elites.size()));
+            WeightContainer child = new WeightContainer();
+            if (population.size() % 2 == 0) {
+                child.mutateAdditively(parent, -ADDITIVE_RANGE, ADDITIVE_RANGE);
+            } else {
+                child.mutateMultiplicatively(parent, MULTIPLICATIVE_MIN, MULTIPLICATIVE_MAX);
+            }
+            population.add(child);
+        }
+        return new ArrayList<>(population.subList(0, size));
+    }
+
+    /**
+     * Play the games of every candidate against the baseline on the pool
+     *
+     * @param population the candidates
+     * @return the fitness of each candidate: the mean result, with the mean score difference as a tie break
+     */
+    private double[] evaluate(List<WeightContainer> population) throws InterruptedException {
+        List<List<Future<double[]>>> results = new ArrayList<>();
+        for (WeightContainer candidate : population) {
+            List<Future<double[]>> candidateResults = new ArrayList<>();
+            for (int i = 0; i < games; i++) {
+                final boolean candidateIsBlack = i % 2 == 0;
+                candidateResults.add(pool.submit(() -> playGame(candidate, candidateIsBlack)));
+            }
+            results.add(candidateResults);
+        }
+        double[] fitness = new double[population.size()];
+        for (int c = 0; c < results.size(); c++) {
+            double sum = 0.0;
+            for (Future<double[]> result : results.get(c)) {
+                try {
+                    double[] game = result.get();
+                    sum += game[0] + game[1] / 1000.0;
+                } catch (ExecutionException e) {
+                    // A failed game counts as a loss
+                    Log.error("A game of the tuning failed", e);
+                }
+            }
+            fitness[c] = sum / games;
+        }
+        return fitness;
+    }
+
+    /**
+     * Play a game of a candidate against the baseline
+     *
+     * @param candidate        the weights of the tuned strategy
+     * @param candidateIsBlack if the candidate plays black
+     * @return the result for the candidate, and the score of the baseline minus the score of the candidate
+     */
+    private double[] playGame(WeightContainer candidate, boolean candidateIsBlack) {
+        NewAi tuned = target.equals(NewAi.DEFENSIVE_KEY)
+                ? new NewAi(candidate, baselineAggressive)
+                : new NewAi(baselineDefensive, candidate);
+        NewAi baseline = new NewAi(baselineDefensive, baselineAggressive);
+        tuned.setFeatureCache(featureCache);
+        baseline.setFeatureCache(featureCache);
+        Tournament.limit(tuned, threads, megabytes);
+        Tournament.limit(baseline, threads, megabytes);
+        Game game = Tournament.play(candidateIsBlack ? tuned : baseline, candidateIsBlack ? baseline : tuned, timeLimit, null);
+        Color own = candidateIsBlack ? Color.Black : Color.White;
+        Color other = candidateIsBlack ? Color.White : Color.Black;
+        return new double[]{Tournament.result(game, own), Tournament.getScore(game, other) - Tournament.getScore(game, own)};
+    }
+
+    private WeightContainer baseline() {
+        return target.equals(NewAi.DEFENSIVE_KEY) ? baselineDefensive : baselineAggressive;
+    }
+
+    // Files
+    // -----
+
+    /**
+     * Write the best weights of the tuned strategy to the weights file, and keep the other strategy of the file
+     *
+     * @param best the best weights
+     */
+    private void export(WeightContainer best) throws IOException {
+        Path path = Path.of(System.getProperty(NewAi.WEIGHTS_PROPERTY, NewAi.DEFAULT_WEIGHTS_PATH));
+        Properties properties = NewAi.loadWeightsFile();
+        properties.setProperty(target, best.format());
+        store(path, properties, "Weights of NewAi, tuned by WeightTuner");
+    }
+
+    private void saveCheckpoint(Path path, int generation, List<WeightContainer> population, WeightContainer best,
+                                double bestFitness) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("target", target);
+        properties.setProperty("generation", Integer.toString(generation));
+        properties.setProperty("baseline." + NewAi.DEFENSIVE_KEY, baselineDefensive.format());
+        properties.setProperty("baseline." + NewAi.AGGRESSIVE_KEY, baselineAggressive.format());
+        properties.setProperty("best", best.format());
+        properties.setProperty("bestFitness", Double.toString(bestFitness));
+        for (int i = 0; i < population.size(); i++) {
+            properties.setProperty("population." + i, population.get(i).format());
+        }
+        store(path, properties, "Checkpoint of WeightTuner");
+    }
+
+    private static Properties load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    /**
+     * Write properties to a temporary file first, so that an interrupted run never leaves a broken file behind
+     *
+     * @param path       the file to write
+     * @param properties the properties to write
+     * @param comment    the comment at the top of the file
+     */
+    private static void store(Path path, Properties properties, String comment) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream file = Files.newOutputStream(temporary)) {
+            properties.store(file, comment);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
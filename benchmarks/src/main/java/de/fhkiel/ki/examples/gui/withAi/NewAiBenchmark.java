@@ -0,0 +1,138 @@
+package de.fhkiel.ki.examples.gui.withAi;
+
+import de.fhkiel.ki.cathedral.*;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.CandidateBuffer;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.CaptureEvaluator;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.FootprintTable;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.MoveIndex;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.SearchState;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.Zobrist;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the move generation and the evaluation of {@link NewAi} on the boards of the corpus, with the same
+ * buffers, index and selection that a turn of the ai uses
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NewAiBenchmark {
+    @Param({"EARLY", "MIDDLE", "LATE"})
+    public Positions.Phase phase;
+
+    // The board of the phase
+    private Game game;
+    // The board of the phase, with the opponent to move
+    private Game opponent;
+    // The footprints of the buildings
+    private FootprintTable footprints;
+    // The footprints that fit onto the board of the phase
+    private MoveIndex moveIndex;
+    // Evaluators for the placements of the player to move and of the opponent
+    private CaptureEvaluator evaluator;
+    private CaptureEvaluator opponentEvaluator;
+    // The placements of the player to move and of the opponent
+    private CandidateBuffer buffer;
+    private CandidateBuffer opponentBuffer;
+    // The ai that owns the opponent workers
+    private NewAi ai;
+    // A worker for the opponent of the board
+    private NewAi.OpponentWorker worker;
+    // The state of the board that the worker makes the placements on
+    private SearchState state;
+    // The hash of the board, which keys the features of the placements of the worker
+    private long boardHash;
+    // The hash of the board of the last invocation that missed the cache
+    private long missHash;
+
+    @Setup
+    public void setUp() {
+        game = Positions.create(phase);
+        opponent = NewAi.forfeited(game);
+        footprints = FootprintTable.create(new Game());
+        moveIndex = new MoveIndex(footprints);
+        moveIndex.sync(game);
+        evaluator = new CaptureEvaluator(footprints);
+        opponentEvaluator = new CaptureEvaluator(footprints);
+        buffer = new CandidateBuffer(footprints);
+        opponentBuffer = new CandidateBuffer(footprints);
+        buffer.generate(game, evaluator, moveIndex);
+        opponentBuffer.generate(opponent, opponentEvaluator, moveIndex);
+        ai = new NewAi();
+        ai.init(new Game());
+        worker = ai.new OpponentWorker(game);
+        state = new SearchState(footprints);
+        state.reset(game);
+        boardHash = new Zobrist(footprints).hash(game);
+        missHash = boardHash;
+        // Every placement of the board is in the cache from now on
+        worker.calculateCapturingPlacements(state, state.getCurrentPlayer(), boardHash);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ai.stopAI();
+    }
+
+    /**
+     * The placements of the player to move, from the index of the board, as a turn generates them
+     */
+    @Benchmark
+    public int generateCandidates() {
+        buffer.generate(game, evaluator, moveIndex);
+        return buffer.size();
+    }
+
+    /**
+     * The placements of the player to move, testing every footprint, as the search on the opponent's time generates
+     * them
+     */
+    @Benchmark
+    public int generateWithoutIndex() {
+        buffer.generate(game, evaluator);
+        return buffer.size();
+    }
+
+    /**
+     * The captures of the opponent that each placement of the player to move prevents
+     */
+    @Benchmark
+    public CandidateBuffer preventedCaptures() {
+        ai.calculatePreventedCaptures(buffer, opponentBuffer);
+        return buffer;
+    }
+
+    /**
+     * The reactions of the opponent on a board that has not been seen before, which makes and rates every placement.
+     * Every invocation takes another hash for the board, so that no placement is found in the feature cache.
+     */
+    @Benchmark
+    public Set<?> opponentCapturingPlacementsMiss() {
+        // Not the step of the codes in the keys of the cache, which would only shift the keys onto other codes
+        missHash += 0xD1B54A32D192ED03L;
+        return worker.calculateCapturingPlacements(state, state.getCurrentPlayer(), missHash);
+    }
+
+    /**
+     * The reactions of the opponent on a board whose placements are all in the feature cache
+     */
+    @Benchmark
+    public Set<?> opponentCapturingPlacementsHit() {
+        return worker.calculateCapturingPlacements(state, state.getCurrentPlayer(), boardHash);
+    }
+
+    /**
+     * The rating of every placement and the selection of the best ones that the reactions are calculated for
+     */
+    @Benchmark
+    public List<?> selectTop() {
+        return ai.selectTop(buffer, NewAi.DEFAULT_TOP_K);
+    }
+}
@@ -0,0 +1,93 @@
+package de.fhkiel.ki.examples.gui.withAi;
+
+import de.fhkiel.ki.cathedral.*;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.CaptureEvaluator;
+import de.fhkiel.ki.examples.gui.withAi.kathedralai.FootprintTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fixed corpus of boards for the benchmarks. Each phase of the game is a board that is reached by the same seeded
+ * random placements on every run, so that the results of different runs can be compared.
+ */
+public final class Positions {
+    // The seed of the placements that lead to the boards
+    private static final long SEED = 20240501L;
+
+    private Positions() {
+    }
+
+    /**
+     * The phases of a game, with the amount of placements that lead to their board
+     */
+    public enum Phase {
+        EARLY(4),
+        MIDDLE(12),
+        LATE(20);
+
+        // The amount of placements that lead to the board
+        private final int plies;
+
+        Phase(int plies) {
+            this.plies = plies;
+        }
+
+        public int getPlies() {
+            return plies;
+        }
+    }
+
+    /**
+     * Create the board of a phase
+     *
+     * @param phase the phase of the game
+     * @return a new game with the board of the phase
+     */
+    public static Game create(Phase phase) {
+        Game game = new Game();
+        FootprintTable footprints = FootprintTable.create(game);
+        CaptureEvaluator evaluator = new CaptureEvaluator(footprints);
+        Random random = new Random(SEED);
+        for (int ply = 0; ply < phase.getPlies(); ply++) {
+            List<Placement> placements = placements(game, footprints, evaluator);
+            if (placements.isEmpty()) {
+                // The game ended early, which would change the corpus without notice
+                throw new IllegalStateException("The game of the corpus ended after " + ply + " placements");
+            }
+            Placement placement = placements.get(random.nextInt(placements.size()));
+            if (!game.takeTurn(placement)) {
+                // A rejected placement would leave the player to move and silently shift the rest of the corpus
+                throw new IllegalStateException("The game of the corpus rejected " + placement + " after " + ply
+                        + " placements");
+            }
+        }
+        return game;
+    }
+
+    /**
+     * Get the placements of the player to move, in the fixed order of the footprint table
+     *
+     * @param game       the game to get the placements for
+     * @param footprints the footprints of the buildings
+     * @param evaluator  the evaluator for the placements
+     * @return the placements
+     */
+    private static List<Placement> placements(Game game, FootprintTable footprints, CaptureEvaluator evaluator) {
+        Color player = game.getCurrentPlayer();
+        evaluator.load(game);
+        List<Placement> placements = new ArrayList<>();
+        for (Building building : footprints.getBuildings()) {
+            if (!game.getPlacableBuildings().contains(building)) {
+                continue;
+            }
+            for (FootprintTable.Footprint footprint : footprints.footprints(building)) {
+                if (evaluator.isPlacable(footprint, player)) {
+                    placements.add(footprint.getPlacement());
+                }
+            }
+        }
+        return placements;
+    }
+}
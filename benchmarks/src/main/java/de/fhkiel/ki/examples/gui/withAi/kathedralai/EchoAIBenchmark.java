@@ -0,0 +1,69 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import de.fhkiel.ki.cathedral.*;
+import de.fhkiel.ki.examples.gui.withAi.Positions;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the capturing placements of {@link EchoAI} and of the region evaluation that replaced taking every
+ * placement on the board and counting the owned cells, on the boards of the corpus
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EchoAIBenchmark {
+    @Param({"EARLY", "MIDDLE", "LATE"})
+    public Positions.Phase phase;
+
+    // The board of the phase
+    private Game game;
+    // The ai with the masks of the board
+    private EchoAI ai;
+    // Evaluator for the placements, loaded with the board of the phase
+    private CaptureEvaluator evaluator;
+    // The footprints that can be placed by the player to move
+    private FootprintTable.Footprint[] placable;
+
+    @Setup
+    public void setUp() {
+        game = Positions.create(phase);
+        ai = new EchoAI();
+        ai.init(new Game());
+        ai.prepare(game);
+        FootprintTable footprints = FootprintTable.create(new Game());
+        evaluator = new CaptureEvaluator(footprints);
+        evaluator.load(game);
+        Color player = game.getCurrentPlayer();
+        placable = game.getPlacableBuildings().stream()
+                .distinct()
+                .flatMap(building -> Arrays.stream(footprints.footprints(building)))
+                .filter(footprint -> evaluator.isPlacable(footprint, player))
+                .toArray(FootprintTable.Footprint[]::new);
+    }
+
+    @Benchmark
+    public Set<?> calculateCapturingPlacements() {
+        return ai.calculateCapturingPlacements(game, game.getCurrentPlayer());
+    }
+
+    /**
+     * The regions of every placement of the board, which checkRegions got by taking the turn, scanning the whole board
+     * for the cells the player owns and undoing the turn again, for every placement
+     */
+    @Benchmark
+    public void evaluateRegions(Blackhole blackhole) {
+        Color player = game.getCurrentPlayer();
+        evaluator.load(game);
+        for (FootprintTable.Footprint footprint : placable) {
+            blackhole.consume(evaluator.evaluate(footprint, player).getRegionDelta());
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import de.fhkiel.ki.cathedral.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Plays seeded random games and compares the results of the capture evaluator with the results of the game for every
+ * placement of every visited board. The {@link SearchState} is played along with the game and compared after every
+ * placement: its legality, board, buildings left, scores and player to move, both after a placement is made and after
+ * it is taken back.
+ * <p>
+ * Every seed plays {@value #DEFAULT_GAMES} games, which compares about two million placements. Longer runs set the
+ * amount of games per seed with {@code -Dkathedral.differential.games=5000}.
+ */
+class DifferentialCheckTest {
+    // The system property that sets the amount of games per seed
+    private static final String GAMES_PROPERTY = "kathedral.differential.games";
+    // The amount of games per seed, if the property is not set
+    private static final int DEFAULT_GAMES = 150;
+    // How many mismatches are described in the message of a failure
+    private static final int REPORTED_MISMATCHES = 20;
+
+    // Instance variables
+    // ------------------
+
+    // The footprints of the buildings
+    private final FootprintTable footprints;
+    // The evaluator to check
+    private final CaptureEvaluator evaluator;
+    // The search state to check, which follows the game
+    private final SearchState state;
+    // The amount of placements that have been compared
+    private long compared;
+    // The amount of placements whose results differ
+    private long mismatches;
+    // The descriptions of the first mismatches
+    private final List<String> reported = new ArrayList<>();
+
+    DifferentialCheckTest() {
+        footprints = FootprintTable.create(new Game());
+        evaluator = new CaptureEvaluator(footprints);
+        state = new SearchState(footprints);
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {5L, 17L, 20240501L, 7919L})
+    void randomGamesMatchTheRulesOfTheGame(long seed) {
+        int games = Integer.getInteger(GAMES_PROPERTY, DEFAULT_GAMES);
+        Random random = new Random(seed);
+        for (int i = 0; i < games; i++) {
+            playRandomGame(random);
+        }
+        assertEquals(0, mismatches, () -> "Seed " + seed + ": " + mismatches + " of " + compared
+                + " placements differ, the first ones:\n" + String.join("\n", reported));
+    }
+
+    /**
+     * Play a game with random placements, and compare every possible placement on the way
+     *
+     * @param random the source of randomness
+     */
+    private void playRandomGame(Random random) {
+        Game game = new Game();
+        state.reset(game);
+        int passes = 0;
+        while (passes < 2) {
+            List<Placement> legal = compareBoard(game);
+            if (legal.isEmpty()) {
+                game.forfeitTurn();
+                state.pass();
+                passes++;
+            } else {
+                Placement placement = legal.get(random.nextInt(legal.size()));
+                game.takeTurn(placement, false);
+                state.make(footprints.get(placement));
+                passes = 0;
+            }
+            compareState(game, "the turn");
+        }
+    }
+
+    /**
+     * Compare every placement of the current player on the current board
+     *
+     * @param game the game to compare on
+     * @return the placements that are legal according to the game
+     */
+    private List<Placement> compareBoard(Game game) {
+        Color player = game.getCurrentPlayer();
+        Color opponent = player.equals(Color.White) ? Color.Black : Color.White;
+        evaluator.load(game);
+        int oldRegions = Bitboard.of(game.getBoard().getField()).regions(player);
+        int oldScore = getScore(game, player);
+        int oldOpponentScore = getScore(game, opponent);
+
+        List<Placement> legal = new ArrayList<>();
+        for (Building building : game.getPlacableBuildings()) {
+            for (FootprintTable.Footprint footprint : footprints.footprints(building)) {
+                Placement placement = footprint.getPlacement();
+                boolean placable = evaluator.isPlacable(footprint, player);
+                boolean makable = state.canMake(footprint);
+                if (!game.takeTurn(placement, false)) {
+                    report(placable, "legal", game, placement, "evaluator accepts a placement the game rejects");
+                    report(makable, "legal", game, placement, "state accepts a placement the game rejects");
+                    continue;
+                }
+                legal.add(placement);
+                report(!makable, "legal", game, placement, "state rejects a placement the game accepts");
+                if (makable) {
+                    state.make(footprint);
+                    compareState(game, placement.toString());
+                    state.unmake();
+                }
+                CaptureEvaluator.Capture capture = evaluator.evaluate(footprint, player);
+                int regionDelta = Bitboard.of(game.getBoard().getField()).regions(player) - oldRegions;
+                report(!placable, "legal", game, placement, "evaluator rejects a placement the game accepts");
+                report(capture.getRegionDelta() != regionDelta, "regions", game, placement,
+                        "evaluator " + capture.getRegionDelta() + ", game " + regionDelta);
+                report(capture.getPlayerScoreDelta() != getScore(game, player) - oldScore, "score", game, placement,
+                        "evaluator " + capture.getPlayerScoreDelta() + ", game " + (getScore(game, player) - oldScore));
+                report(capture.getOpponentScoreDelta() != getScore(game, opponent) - oldOpponentScore, "opponent score",
+                        game, placement, "evaluator " + capture.getOpponentScoreDelta() + ", game "
+                                + (getScore(game, opponent) - oldOpponentScore));
+                game.undoLastTurn();
+                compared++;
+            }
+        }
+        compareState(game, "taking back the placements");
+        return legal;
+    }
+
+    /**
+     * Compare the search state with the game, and report the first difference
+     *
+     * @param game  the game to compare with
+     * @param after what has been done to both before the comparison
+     */
+    private void compareState(Game game, String after) {
+        String difference = null;
+        Color[][] field = game.getBoard().getField();
+        for (int x = 0; x < CellMask.SIZE && difference == null; x++) {
+            for (int y = 0; y < CellMask.SIZE && difference == null; y++) {
+                Color color = state.getColor(CellMask.index(x, y));
+                if (!color.equals(field[x][y])) {
+                    difference = "cell " + x + "," + y + " is " + color + " in the state, " + field[x][y] + " in the game";
+                }
+            }
+        }
+        for (Color player : new Color[]{Color.Black, Color.White}) {
+            if (difference == null && state.getScore(player) != getScore(game, player)) {
+                difference = "score of " + player + " is " + state.getScore(player) + " in the state, "
+                        + getScore(game, player) + " in the game";
+            }
+            int[] left = new int[footprints.getBuildings().size()];
+            for (Building building : game.getPlacableBuildings(player)) {
+                left[footprints.id(building)]++;
+            }
+            for (int id = 0; id < left.length && difference == null; id++) {
+                if (state.left(player, id) != left[id]) {
+                    difference = footprints.building(id) + " is left " + state.left(player, id) + " times in the state, "
+                            + left[id] + " times in the game";
+                }
+            }
+        }
+        if (difference == null && !state.getCurrentPlayer().equals(game.getCurrentPlayer())) {
+            difference = "player to move is " + state.getCurrentPlayer() + " in the state, " + game.getCurrentPlayer()
+                    + " in the game";
+        }
+        if (difference != null) {
+            mismatch("state after " + after + " with " + game.getBoard().getPlacedBuildings().size() + " buildings: "
+                    + difference);
+        }
+    }
+
+    /**
+     * Count a mismatch, if there is one
+     *
+     * @param mismatch  if the results differ
+     * @param what      the value that has been compared
+     * @param game      the game on which the values have been compared
+     * @param placement the placement whose results differ
+     * @param details   the values of the evaluator and the game
+     */
+    private void report(boolean mismatch, String what, Game game, Placement placement, String details) {
+        if (!mismatch) {
+            return;
+        }
+        mismatch(what + " after " + game.getBoard().getPlacedBuildings().size() + " buildings for " + placement + ": "
+                + details);
+    }
+
+    private void mismatch(String description) {
+        if (mismatches++ < REPORTED_MISMATCHES) {
+            reported.add(description);
+        }
+    }
+
+    private static int getScore(Game game, Color player) {
+        Object a = game.score().get(player);
+        if (a != null) {
+            return (int) a;
+        } else {
+            return 47;
+        }
+    }
+}
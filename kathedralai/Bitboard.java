@@ -0,0 +1,105 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import de.fhkiel.ki.cathedral.Color;
+
+/**
+ * Packed representation of the board: one 100-cell mask for each color, built from the field in a single pass.
+ * Region and ownership counts then become population counts instead of scans over the field.
+ */
+public final class Bitboard {
+    // The masks of the board, indexed by the ordinal of the color
+    private final CellMask[] masks;
+
+    // Constructors
+    // ------------
+    public Bitboard() {
+        masks = new CellMask[Color.values().length];
+        for (int i = 0; i < masks.length; i++) {
+            masks[i] = new CellMask();
+        }
+    }
+
+    /**
+     * Create a new bitboard from a given field
+     *
+     * @param field the field to pack
+     * @return the packed field
+     */
+    public static Bitboard of(Color[][] field) {
+        Bitboard board = new Bitboard();
+        board.load(field);
+        return board;
+    }
+
+    // Instance methods
+    // ----------------
+
+    /**
+     * Overwrite this bitboard with the given field, so that one instance can be reused between scans
+     *
+     * @param field the field to pack
+     */
+    public void load(Color[][] field) {
+        for (CellMask mask : masks) {
+            mask.clear();
+        }
+        for (int x = 0; x < CellMask.SIZE; x++) {
+            for (int y = 0; y < CellMask.SIZE; y++) {
+                masks[field[x][y].ordinal()].set(x, y);
+            }
+        }
+    }
+
+    /**
+     * Get the mask of all cells that currently have a given color
+     *
+     * @param color the color to get the mask for
+     * @return the live mask of the color, do not modify it
+     */
+    public CellMask mask(Color color) {
+        return masks[color.ordinal()];
+    }
+
+    /**
+     * Get the amount of cells that have a given color
+     *
+     * @param color the color to count
+     * @return the amount of cells of that color
+     */
+    public int count(Color color) {
+        return masks[color.ordinal()].cardinality();
+    }
+
+    /**
+     * Get the amount of cells that are captured as regions by a player
+     *
+     * @param player the player to count the regions for
+     * @return the amount of owned cells of the player
+     */
+    public int regions(Color player) {
+        return count(player.subColor());
+    }
+
+    /**
+     * Get the cells a player is allowed to build on, which are the free cells and the player's own regions
+     *
+     * @param player the player to get the cells for
+     * @param target the mask to write the result into
+     * @return the target mask
+     */
+    public CellMask placable(Color player, CellMask target) {
+        target.copyFrom(mask(Color.None));
+        target.or(mask(player.subColor()));
+        return target;
+    }
+
+    public Color get(int x, int y) {
+        int index = CellMask.index(x, y);
+        for (Color color : Color.values()) {
+            if (masks[color.ordinal()].get(index)) {
+                return color;
+            }
+        }
+        return Color.None;
+    }
+}
@@ -0,0 +1,386 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import de.fhkiel.ki.cathedral.*;
+
+import java.util.Arrays;
+
+/**
+ * Reusable store of the candidate placements of a board. Each candidate is the packed code of its footprint, and its
+ * features are kept in parallel primitive arrays, indexed by the slot of the candidate. A placement is added at most
+ * once, which is checked with a table over all codes, so that neither the generation nor the ordering of the
+ * candidates creates any garbage once the arrays have grown to the size of the largest board.
+ * <p>
+ * An instance must not be shared between threads.
+ */
+public final class CandidateBuffer {
+    // The initial capacity of the arrays
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Instance variables
+    // ------------------
+
+    // The footprints of the buildings
+    private final FootprintTable footprints;
+    // The score of each building, by its id
+    private final int[] buildingScores;
+    // The generation of the buffer in which each code has been added, by the code
+    private final int[] stampOfCode;
+    // The slot of each code, valid if the stamp of the code is the current one
+    private final int[] slotOfCode;
+    // The generation of the buffer, increased by every clear
+    private int stamp;
+    // The buildings that have been generated for the current board, by their id
+    private final boolean[] generated;
+
+    // The features of the candidates, by their slot
+    private int[] codes;
+    // The amount of region cells the placement would capture
+    private int[] positions;
+    // The change of the score of the player
+    private int[] deltaScores;
+    // The amount of captures of the opponent the placement would prevent
+    private double[] prevents;
+    // The score the opponent can gain with its reply
+    private double[] opponentScores;
+    // The weighted score of the last rating
+    private double[] scores;
+    // The slots, ordered by the last sort
+    private int[] order;
+    // The amount of candidates
+    private int size;
+
+    // Constructors
+    // ------------
+    public CandidateBuffer(FootprintTable footprints) {
+        this.footprints = footprints;
+        this.buildingScores = new int[footprints.getBuildings().size()];
+        for (int id = 0; id < buildingScores.length; id++) {
+            buildingScores[id] = footprints.building(id).score();
+        }
+        this.stampOfCode = new int[footprints.codeLimit()];
+        this.slotOfCode = new int[footprints.codeLimit()];
+        this.stamp = 1;
+        this.generated = new boolean[buildingScores.length];
+        this.codes = new int[INITIAL_CAPACITY];
+        this.positions = new int[INITIAL_CAPACITY];
+        this.deltaScores = new int[INITIAL_CAPACITY];
+        this.prevents = new double[INITIAL_CAPACITY];
+        this.opponentScores = new double[INITIAL_CAPACITY];
+        this.scores = new double[INITIAL_CAPACITY];
+        this.order = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Remove every candidate, without touching the arrays
+     */
+    public void clear() {
+        size = 0;
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(stampOfCode, 0);
+            stamp = 1;
+        }
+    }
+
+    /**
+     * Add a candidate, if its placement is not part of the buffer yet
+     *
+     * @param code       the packed code of the footprint of the placement
+     * @param positions  the amount of region cells the placement would capture
+     * @param deltaScore the change of the score of the player
+     * @return the slot of the candidate, which is the slot of the existing candidate for a placement that was added
+     * before
+     */
+    public int add(int code, int positions, int deltaScore) {
+        if (stampOfCode[code] == stamp) {
+            return slotOfCode[code];
+        }
+        if (size == codes.length) {
+            grow();
+        }
+        int slot = size++;
+        stampOfCode[code] = stamp;
+        slotOfCode[code] = slot;
+        codes[slot] = code;
+        this.positions[slot] = positions;
+        deltaScores[slot] = deltaScore;
+        prevents[slot] = 0.0;
+        opponentScores[slot] = 0.0;
+        order[slot] = slot;
+        return slot;
+    }
+
+    private void grow() {
+        int capacity = codes.length * 2;
+        codes = Arrays.copyOf(codes, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        deltaScores = Arrays.copyOf(deltaScores, capacity);
+        prevents = Arrays.copyOf(prevents, capacity);
+        opponentScores = Arrays.copyOf(opponentScores, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+        order = Arrays.copyOf(order, capacity);
+    }
+
+    // Generation
+    // ----------
+
+    /**
+     * Replace the candidates with every placement of the player to move, testing every footprint of its buildings
+     *
+     * @param game      the game to generate the placements for
+     * @param evaluator the evaluator that rates the placements, which is loaded with the board of the game here
+     */
+    public void generate(Game game, CaptureEvaluator evaluator) {
+        generate(game, evaluator, null);
+    }
+
+    /**
+     * Replace the candidates with every placement of the player to move
+     *
+     * @param game      the game to generate the placements for
+     * @param evaluator the evaluator that rates the placements, which is loaded with the board of the game here
+     * @param index     the index of the footprints that fit, synced with the board of the game, or null to test every
+     *                  footprint
+     */
+    public void generate(Game game, CaptureEvaluator evaluator, MoveIndex index) {
+        generate(game, evaluator, index, 0, 1);
+    }
+
+    /**
+     * Replace the candidates with the placements of the player to move of a single shard. The buildings are split
+     * into the shards by their id, thus the shards of a board can be generated into buffers of their own at the same
+     * time, and then be concatenated with {@link #addAll(CandidateBuffer)}. The game and the index are only read.
+     *
+     * @param game      the game to generate the placements for
+     * @param evaluator the evaluator that rates the placements, which is loaded with the board of the game here
+     * @param index     the index of the footprints that fit, synced with the board of the game, or null to test every
+     *                  footprint
+     * @param shard     the shard to generate, from 0 to shards - 1
+     * @param shards    the amount of shards the buildings are split into
+     */
+    public void generate(Game game, CaptureEvaluator evaluator, MoveIndex index, int shard, int shards) {
+        clear();
+        Arrays.fill(generated, false);
+        evaluator.load(game);
+        Color player = game.getCurrentPlayer();
+        for (Building building : game.getPlacableBuildings()) {
+            int id = footprints.id(building);
+            // Buildings that the player owns more than once only have to be tested once, and the buildings of other
+            // shards not at all
+            if (generated[id] || id % shards != shard) {
+                continue;
+            }
+            generated[id] = true;
+            if (index != null) {
+                for (int i = index.next(building, player, index.start(building)); i >= 0; i = index.next(building, player, i + 1)) {
+                    add(footprints.footprint(i), player, evaluator);
+                }
+            } else {
+                for (FootprintTable.Footprint footprint : footprints.canonicalFootprints(building)) {
+                    if (evaluator.isPlacable(footprint, player)) {
+                        add(footprint, player, evaluator);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the candidates with every placement of the player to move on a search state. Each placement is made
+     * and taken back on the state, and its features are read from the state in between.
+     *
+     * @param state the state to generate the placements for, which is the same again afterwards
+     */
+    public void generate(SearchState state) {
+        clear();
+        Color player = state.getCurrentPlayer();
+        // The regions of the cathedral are the free cells, which matches the features of the evaluator
+        CellMask owned = state.mask(player.subColor());
+        int regions = owned.cardinality();
+        int score = state.getScore(player);
+        for (int id = 0; id < buildingScores.length; id++) {
+            if (state.left(player, id) == 0) {
+                continue;
+            }
+            for (FootprintTable.Footprint footprint : footprints.canonicalFootprints(footprints.building(id))) {
+                if (state.make(footprint)) {
+                    add(footprint.getCode(), owned.cardinality() - regions, state.getScore(player) - score);
+                    state.unmake();
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the candidates of another buffer, with their features
+     *
+     * @param other the buffer to add the candidates of
+     */
+    public void addAll(CandidateBuffer other) {
+        for (int slot = 0; slot < other.size; slot++) {
+            add(other.codes[slot], other.positions[slot], other.deltaScores[slot]);
+        }
+    }
+
+    private void add(FootprintTable.Footprint footprint, Color player, CaptureEvaluator evaluator) {
+        CaptureEvaluator.Capture capture = evaluator.evaluate(footprint, player);
+        add(footprint.getCode(), capture.getRegionDelta(), capture.getPlayerScoreDelta());
+    }
+
+    // Scoring
+    // -------
+
+    /**
+     * Calculate the weighted score of a candidate, in the same way as the placement data of {@code NewAi}
+     *
+     * @param slot the slot of the candidate
+     * @return the weighted score
+     */
+    public double score(int slot, double scoreDeltaWeight, double scoreWeight, double captureWeight, double preventWeight,
+                        double opponentWeight) {
+        return scoreDeltaWeight * deltaScores[slot]
+                + scoreWeight * buildingScores[FootprintTable.buildingId(codes[slot])]
+                + captureWeight * positions[slot]
+                + preventWeight * Math.ceil(prevents[slot] / 2)
+                + opponentWeight * opponentScores[slot];
+    }
+
+    /**
+     * Calculate the weighted score of every candidate, which can then be read with {@link #rated(int)}
+     */
+    public void rate(double scoreDeltaWeight, double scoreWeight, double captureWeight, double preventWeight,
+                     double opponentWeight) {
+        for (int slot = 0; slot < size; slot++) {
+            scores[slot] = score(slot, scoreDeltaWeight, scoreWeight, captureWeight, preventWeight, opponentWeight);
+        }
+    }
+
+    /**
+     * Order the candidates by the scores of the last {@link #rate}, best first
+     *
+     * @param first the packed code of a placement that is put in front of all others, or -1
+     */
+    public void sort(int first) {
+        for (int slot = 0; slot < size; slot++) {
+            order[slot] = slot;
+        }
+        int from = 0;
+        if (first >= 0 && contains(first)) {
+            int slot = slotOfCode[first];
+            order[slot] = 0;
+            order[0] = slot;
+            from = 1;
+        }
+        sort(from, size - 1);
+    }
+
+    /**
+     * Sort a range of the order by the scores, descending, with a quicksort that falls back to insertion sort
+     *
+     * @param low  the first rank of the range
+     * @param high the last rank of the range
+     */
+    private void sort(int low, int high) {
+        while (high - low > 16) {
+            double pivot = scores[order[(low + high) >>> 1]];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (scores[order[i]] > pivot) {
+                    i++;
+                }
+                while (scores[order[j]] < pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i++] = order[j];
+                    order[j--] = swap;
+                }
+            }
+            // Recurse into the smaller part, so that the stack stays small
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            int slot = order[i];
+            int j = i - 1;
+            while (j >= low && scores[order[j]] < scores[slot]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = slot;
+        }
+    }
+
+    // Getter & Setter
+    // ---------------
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int code) {
+        return code >= 0 && code < stampOfCode.length && stampOfCode[code] == stamp;
+    }
+
+    /**
+     * Get the slot of the candidate at a rank of the last sort
+     *
+     * @param rank the rank, 0 is the best candidate
+     * @return the slot of the candidate
+     */
+    public int ordered(int rank) {
+        return order[rank];
+    }
+
+    public int code(int slot) {
+        return codes[slot];
+    }
+
+    public Placement placement(int slot) {
+        return footprints.get(codes[slot]).getPlacement();
+    }
+
+    public int positions(int slot) {
+        return positions[slot];
+    }
+
+    public int deltaScore(int slot) {
+        return deltaScores[slot];
+    }
+
+    public double prevent(int slot) {
+        return prevents[slot];
+    }
+
+    public void setPrevent(int slot, double prevent) {
+        prevents[slot] = prevent;
+    }
+
+    public double opponentScore(int slot) {
+        return opponentScores[slot];
+    }
+
+    public void setOpponentScore(int slot, double opponentScore) {
+        opponentScores[slot] = opponentScore;
+    }
+
+    /**
+     * Get the weighted score of a candidate from the last {@link #rate}
+     *
+     * @param slot the slot of the candidate
+     * @return the weighted score
+     */
+    public double rated(int slot) {
+        return scores[slot];
+    }
+}
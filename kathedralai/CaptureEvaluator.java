@@ -0,0 +1,263 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import de.fhkiel.ki.cathedral.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Calculates the regions a placement would capture directly from the current board, without taking the turn in the
+ * game. Only the areas next to the new building are flood filled, as every other area of the board keeps the walls it
+ * had before the placement. An instance keeps scratch buffers and must not be shared between threads.
+ */
+public final class CaptureEvaluator {
+    // Direction offsets for the four neighbours of a cell
+    private static final int[] DX = {1, -1, 0, 0};
+    private static final int[] DY = {0, 0, 1, -1};
+
+    // Instance variables
+    // ------------------
+
+    // The footprints of the buildings
+    private final FootprintTable footprints;
+    // The packed board of the loaded game
+    private final Bitboard bitboard;
+    // The placed buildings of the loaded game
+    private final List<Placement> placed;
+    // For each cell, the index of the placed building on it, or -1
+    private final int[] pieceAt;
+    // The amount of placed buildings of each color, indexed by the ordinal of the color
+    private final int[] buildingCount;
+
+    // Scratch buffers for the flood fill
+    private final int[] queue;
+    private final CellMask walls;
+    private final CellMask visited;
+    private final CellMask region;
+    // The result of the last evaluation
+    private final Capture capture;
+
+    // Constructors
+    // ------------
+    public CaptureEvaluator(FootprintTable footprints) {
+        this.footprints = footprints;
+        this.bitboard = new Bitboard();
+        this.placed = new ArrayList<>();
+        this.pieceAt = new int[CellMask.CELLS];
+        this.buildingCount = new int[Color.values().length];
+        this.queue = new int[CellMask.CELLS];
+        this.walls = new CellMask();
+        this.visited = new CellMask();
+        this.region = new CellMask();
+        this.capture = new Capture();
+    }
+
+    /**
+     * Load the board of a game, which has to be done once for every board the placements are evaluated on
+     *
+     * @param game the game to take the board from
+     */
+    public void load(Game game) {
+        bitboard.load(game.getBoard().getField());
+        placed.clear();
+        placed.addAll(game.getBoard().getPlacedBuildings());
+        Arrays.fill(pieceAt, -1);
+        Arrays.fill(buildingCount, 0);
+        for (int i = 0; i < placed.size(); i++) {
+            buildingCount[placed.get(i).building().getColor().ordinal()]++;
+            CellMask form = footprints.get(placed.get(i)).getForm();
+            for (int cell = form.nextSetBit(0); cell >= 0; cell = form.nextSetBit(cell + 1)) {
+                pieceAt[cell] = i;
+            }
+        }
+    }
+
+    /**
+     * Check if a player could place a footprint on the loaded board, regarding the fields that are covered
+     *
+     * @param footprint the footprint to check
+     * @param player    the player that places the building
+     * @return true, if every covered field is free or a region of the player
+     */
+    public boolean isPlacable(FootprintTable.Footprint footprint, Color player) {
+        return bitboard.placable(player, walls).containsAll(footprint.getForm());
+    }
+
+    /**
+     * Evaluate the regions that a placement would capture on the loaded board
+     *
+     * @param footprint the footprint of the placement
+     * @param player    the player that places the building
+     * @return the capture of the placement, which is overwritten by the next call
+     */
+    public Capture evaluate(FootprintTable.Footprint footprint, Color player) {
+        Color owned = player.subColor();
+        CellMask form = footprint.getForm();
+        capture.reset(footprint, -form.intersectionCount(bitboard.mask(owned)));
+
+        // No regions can be captured with the first building of a player
+        int buildings = buildingCount[player.ordinal()];
+        if (buildings == 0) {
+            return capture;
+        }
+
+        // The walls are the buildings of the player, including the new one
+        walls.copyFrom(bitboard.mask(player));
+        walls.or(form);
+        visited.copyFrom(walls);
+
+        // With the second building, areas that have been closed by the first building are captured as well
+        if (buildings == 1) {
+            for (int cell = 0; cell < CellMask.CELLS; cell++) {
+                if (!visited.get(cell)) {
+                    fillRegion(cell, owned);
+                }
+            }
+            return capture;
+        }
+
+        // Flood fill every area that touches the new building
+        for (int cell = form.nextSetBit(0); cell >= 0; cell = form.nextSetBit(cell + 1)) {
+            int x = cell / CellMask.SIZE;
+            int y = cell % CellMask.SIZE;
+            for (int d = 0; d < DX.length; d++) {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                if (CellMask.onBoard(nx, ny) && !visited.get(nx, ny)) {
+                    fillRegion(CellMask.index(nx, ny), owned);
+                }
+            }
+        }
+        return capture;
+    }
+
+    /**
+     * Flood fill the area that contains a given cell, and add it to the capture if it contains at most one building
+     *
+     * @param start the cell to start at
+     * @param owned the region color of the player
+     */
+    private void fillRegion(int start, Color owned) {
+        region.clear();
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        visited.set(start);
+        // The first and the second building that have been found in the area
+        int piece = -1;
+        boolean tooManyPieces = false;
+        while (head < tail) {
+            int cell = queue[head++];
+            region.set(cell);
+            int found = pieceAt[cell];
+            if (found >= 0 && found != piece) {
+                tooManyPieces |= piece >= 0;
+                piece = found;
+            }
+            int x = cell / CellMask.SIZE;
+            int y = cell % CellMask.SIZE;
+            for (int d = 0; d < DX.length; d++) {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                if (CellMask.onBoard(nx, ny) && !visited.get(nx, ny)) {
+                    int next = CellMask.index(nx, ny);
+                    visited.set(next);
+                    queue[tail++] = next;
+                }
+            }
+        }
+        if (tooManyPieces) {
+            return;
+        }
+        capture.add(region, bitboard.mask(owned), piece >= 0 ? placed.get(piece) : null);
+    }
+
+    public FootprintTable getFootprints() {
+        return footprints;
+    }
+
+    /**
+     * The result of an evaluated placement
+     */
+    public static final class Capture {
+        // The placement that has been evaluated
+        private Placement placement;
+        // The cells that become a region of the player
+        private final CellMask captured;
+        // The change of the amount of region cells of the player
+        private int regionDelta;
+        // The buildings that are removed from the board by the captures
+        private final List<Placement> removed;
+
+        Capture() {
+            captured = new CellMask();
+            removed = new ArrayList<>(2);
+        }
+
+        private void reset(FootprintTable.Footprint footprint, int regionDelta) {
+            this.placement = footprint.getPlacement();
+            this.captured.clear();
+            this.regionDelta = regionDelta;
+            this.removed.clear();
+        }
+
+        private void add(CellMask region, CellMask owned, Placement piece) {
+            captured.or(region);
+            regionDelta += region.cardinality() - region.intersectionCount(owned);
+            if (piece != null) {
+                removed.add(piece);
+            }
+        }
+
+        public Placement getPlacement() {
+            return placement;
+        }
+
+        public CellMask getCaptured() {
+            return captured;
+        }
+
+        /**
+         * Get the change of the amount of region cells of the player, as the difference of the owned cells before
+         * and after the placement. Building on an own region reduces this value.
+         *
+         * @return the region delta
+         */
+        public int getRegionDelta() {
+            return regionDelta;
+        }
+
+        public List<Placement> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Get the change of the score of the placing player, which is lowered by the size of the placed building.
+         * The cathedral does not count for any player.
+         *
+         * @return the score delta of the player
+         */
+        public int getPlayerScoreDelta() {
+            if (placement.building().getColor().equals(Color.Blue)) {
+                return 0;
+            }
+            return -placement.building().score();
+        }
+
+        /**
+         * Get the change of the score of the opponent, whose captured buildings are returned to them
+         *
+         * @return the score delta of the opponent
+         */
+        public int getOpponentScoreDelta() {
+            int delta = 0;
+            for (Placement piece : removed) {
+                if (!piece.building().getColor().equals(Color.Blue)) {
+                    delta += piece.building().score();
+                }
+            }
+            return delta;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import de.fhkiel.ki.cathedral.Position;
+
+/**
+ * A set of cells on the 10x10 board, packed into two longs (cells 0-63 and cells 64-99)
+ */
+public final class CellMask {
+    // Constants
+    // ---------
+    public static final int SIZE = 10;
+    public static final int CELLS = SIZE * SIZE;
+    // The bits of the high word that are actually on the board
+    private static final long HIGH_BITS = (1L << (CELLS - 64)) - 1;
+
+    // Instance variables
+    // ------------------
+
+    // Cells 0 to 63
+    private long low;
+    // Cells 64 to 99
+    private long high;
+
+    // Constructors
+    // ------------
+    public CellMask() {
+        this(0L, 0L);
+    }
+
+    public CellMask(long low, long high) {
+        this.low = low;
+        this.high = high & HIGH_BITS;
+    }
+
+    public CellMask(CellMask other) {
+        this(other.low, other.high);
+    }
+
+    /**
+     * Get the mask that contains every cell of the board
+     *
+     * @return the mask with all 100 cells set
+     */
+    public static CellMask full() {
+        return new CellMask(-1L, HIGH_BITS);
+    }
+
+    // Static helpers
+    // --------------
+
+    /**
+     * Get the bit index of a given cell. The index follows the field[x][y] layout of the board.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the index of the cell in [0, 100)
+     */
+    public static int index(int x, int y) {
+        return x * SIZE + y;
+    }
+
+    /**
+     * Check if the given coordinates are on the board
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return true, if the cell is on the board
+     */
+    public static boolean onBoard(int x, int y) {
+        return x >= 0 && x < SIZE && y >= 0 && y < SIZE;
+    }
+
+    // Instance methods
+    // ----------------
+
+    public void set(int index) {
+        if (index < 64) {
+            low |= 1L << index;
+        } else {
+            high |= 1L << (index - 64);
+        }
+    }
+
+    public void set(int x, int y) {
+        set(index(x, y));
+    }
+
+    public void set(Position position) {
+        set(position.x(), position.y());
+    }
+
+    public void clear(int index) {
+        if (index < 64) {
+            low &= ~(1L << index);
+        } else {
+            high &= ~(1L << (index - 64));
+        }
+    }
+
+    public boolean get(int index) {
+        if (index < 64) {
+            return (low & (1L << index)) != 0;
+        }
+        return (high & (1L << (index - 64))) != 0;
+    }
+
+    public boolean get(int x, int y) {
+        return get(index(x, y));
+    }
+
+    /**
+     * Remove every cell from this mask
+     */
+    public void clear() {
+        low = 0L;
+        high = 0L;
+    }
+
+    /**
+     * Overwrite this mask with the cells of another mask
+     *
+     * @param other the mask to copy from
+     */
+    public void copyFrom(CellMask other) {
+        low = other.low;
+        high = other.high;
+    }
+
+    /**
+     * Add every cell of the other mask to this mask (set union)
+     *
+     * @param other the mask to add
+     */
+    public void or(CellMask other) {
+        low |= other.low;
+        high |= other.high;
+    }
+
+    /**
+     * Keep only the cells that are in both masks (set intersection)
+     *
+     * @param other the mask to intersect with
+     */
+    public void and(CellMask other) {
+        low &= other.low;
+        high &= other.high;
+    }
+
+    /**
+     * Remove every cell of the other mask from this mask (set difference)
+     *
+     * @param other the mask to remove
+     */
+    public void andNot(CellMask other) {
+        low &= ~other.low;
+        high &= ~other.high;
+    }
+
+    /**
+     * Check if the two masks share at least one cell
+     *
+     * @param other the mask to test against
+     * @return true, if the intersection is not empty
+     */
+    public boolean intersects(CellMask other) {
+        return (low & other.low) != 0 || (high & other.high) != 0;
+    }
+
+    /**
+     * Check if every cell of the other mask is also in this mask
+     *
+     * @param other the mask to test
+     * @return true, if other is a subset of this mask
+     */
+    public boolean containsAll(CellMask other) {
+        return (other.low & ~low) == 0 && (other.high & ~high) == 0;
+    }
+
+    /**
+     * Get the amount of cells in this mask
+     *
+     * @return the population count of the mask
+     */
+    public int cardinality() {
+        return Long.bitCount(low) + Long.bitCount(high);
+    }
+
+    /**
+     * Get the amount of cells that are in both masks, without creating a new mask
+     *
+     * @param other the mask to intersect with
+     * @return the population count of the intersection
+     */
+    public int intersectionCount(CellMask other) {
+        return Long.bitCount(low & other.low) + Long.bitCount(high & other.high);
+    }
+
+    public boolean isEmpty() {
+        return low == 0 && high == 0;
+    }
+
+    /**
+     * Get the index of the first cell in this mask that is at or after the given index
+     *
+     * @param from the index to start searching at
+     * @return the next set index, or -1 if there is none
+     */
+    public int nextSetBit(int from) {
+        if (from < 64) {
+            long word = low & (-1L << from);
+            if (word != 0) {
+                return Long.numberOfTrailingZeros(word);
+            }
+            from = 64;
+        }
+        if (from >= CELLS) {
+            return -1;
+        }
+        long word = high & (-1L << (from - 64));
+        return word != 0 ? 64 + Long.numberOfTrailingZeros(word) : -1;
+    }
+
+    // Getter
+    // ------
+    public long getLow() {
+        return low;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof CellMask) {
+            CellMask mask = (CellMask) obj;
+            return this.low == mask.low && this.high == mask.high;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(low * 31 + high);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int x = 0; x < SIZE; x++) {
+            builder.append('|');
+            for (int y = 0; y < SIZE; y++) {
+                builder.append(get(x, y) ? "X" : " ");
+            }
+            builder.append("|\n");
+        }
+        return builder.toString();
+    }
+}
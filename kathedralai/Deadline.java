@@ -0,0 +1,51 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+/**
+ * Point in time at which a calculation has to be finished, measured with the monotonic clock of the system
+ */
+public final class Deadline {
+    // The hard time limit of a single turn in milliseconds
+    public static final long TURN_LIMIT_MILLIS = 30000;
+    // The default budget of a single turn, which leaves room for copying the game and for garbage collection
+    public static final long DEFAULT_BUDGET_MILLIS = 20000;
+
+    // The point in time at which the deadline is reached, in nanoseconds
+    private final long end;
+
+    private Deadline(long end) {
+        this.end = end;
+    }
+
+    /**
+     * Create a deadline that is reached after a given amount of milliseconds from now
+     *
+     * @param millis the budget in milliseconds
+     * @return the deadline
+     */
+    public static Deadline in(long millis) {
+        return new Deadline(System.nanoTime() + millis * 1000000);
+    }
+
+    /**
+     * Create a deadline that is reached at a fraction of the time that is left on this deadline
+     *
+     * @param fraction the fraction of the remaining time, in (0, 1]
+     * @return the earlier deadline
+     */
+    public Deadline fraction(double fraction) {
+        long now = System.nanoTime();
+        return new Deadline(now + (long) (Math.max(0, end - now) * fraction));
+    }
+
+    public boolean isExpired() {
+        return System.nanoTime() - end >= 0;
+    }
+
+    public long remainingNanos() {
+        return Math.max(0, end - System.nanoTime());
+    }
+
+    public long remainingMillis() {
+        return remainingNanos() / 1000000;
+    }
+}
@@ -24,12 +24,18 @@ public class EchoAI implements CathedralAI {
     // List of all the turns that have happened during the game
     private List<Placement> turns;
 
-    // Store the hull placements for each player, and calulate them each anew at the start of the ki
-    private Map<Color, Set<Position>> hullPlayerPositions;
-    // Store the turn placements for each player and calculate them each anew at the start of the ki
-    private Map<Color, Set<Position>> turnPlayerPositions;
-    // Store the positions that the turn player can place their placements to
-    private Map<Color, Set<Position>> turnPlayerPlacablePositions;
+    // The footprints of every building at every position, calculated once at the start of the game
+    private FootprintTable footprints;
+    // The placements for the first boards of the game, generated offline
+    private OpeningBook book;
+    // Store the hull cells for each player, and calulate them each anew at the start of the ki
+    private Map<Color, CellMask> hullPlayerMasks;
+    // Store the turn cells for each player and calculate them each anew at the start of the ki
+    private Map<Color, CellMask> turnPlayerMasks;
+    // Store the cells that the turn player can place their placements to
+    private Map<Color, CellMask> turnPlayerPlacableMasks;
+    // The counters and the durations of the turns
+    private final Metrics metrics = new Metrics();
 
     @Override
     public String name() {
@@ -38,32 +44,42 @@ public class EchoAI implements CathedralAI {
 
     @Override
     public void init(Game game) {
-        System.out.println(ANSI_GREEN + "[LOG] Start the AI" + ANSI_RESET);
+        Log.info("Start the AI");
         // Fetch the available processors
         processors = Runtime.getRuntime().availableProcessors();
         turns = new ArrayList<>();
-        this.hullPlayerPositions = new HashMap<>();
-        this.turnPlayerPositions = new HashMap<>();
-        this.turnPlayerPlacablePositions = new HashMap<>();
+        footprints = FootprintTable.create(game);
+        book = OpeningBook.open(footprints, new Zobrist(footprints));
+        this.hullPlayerMasks = new HashMap<>();
+        this.turnPlayerMasks = new HashMap<>();
+        this.turnPlayerPlacableMasks = new HashMap<>();
     }
 
     @Override
     public Placement takeTurn(Game game) {
         // 0. Set up the required data
         Game copy = game.copy();
-        updateTurn(copy);
-        updateHull(copy);
-        updateTurnPlayerPlacables(copy);
-        long startTime = System.currentTimeMillis();
-        printPlayerPositionList(this.turnPlayerPlacablePositions.get(game.getCurrentPlayer()).stream().toList(), game.getCurrentPlayer());
+        // The first boards of the game, including the cathedral, have been searched offline
+        Placement bookPlacement = book.lookup(copy);
+        if (bookPlacement != null) {
+            return bookPlacement;
+        }
+        long startTime = System.nanoTime();
+        prepare(copy);
+        if (Log.DEBUG) {
+            printPlayerMask(this.turnPlayerPlacableMasks.get(game.getCurrentPlayer()), game.getCurrentPlayer());
+        }
 
         // 1. Calculate the possible positions for the current player
         Set<PlacementData> possibles = getPlacements(copy, 0, 10, false);
+        long phase = metrics.time("generation", startTime);
+        metrics.sample("candidates.own", possibles.size());
 
         Set<PlacementData> capturingPlacements = new HashSet<>();
         if (!game.getCurrentPlayer().equals(Color.Blue)) {
             capturingPlacements = calculateCapturingPlacements(copy, copy.getCurrentPlayer());
-            System.out.println(capturingPlacements.size());
+            metrics.time("capturing", phase);
+            metrics.sample("candidates.capturing", capturingPlacements.size());
         }
         if(possibles.size() == 0) {return null;}
 
@@ -74,17 +90,32 @@ public class EchoAI implements CathedralAI {
             pd = capturingPlacements.stream().collect(Collectors.toList()).get(ThreadLocalRandom.current().nextInt(0, capturingPlacements.size()));
         }
 
-        long endTime = System.currentTimeMillis();
-        printTime(startTime, endTime);
+        long endTime = metrics.time("turn", startTime);
+        if (Log.INFO) {
+            printTime(startTime, endTime);
+        }
         // And return the calculated best placement to be done
-        System.out.println(pd);
+        if (Log.DEBUG) {
+            Log.debug(pd.toString());
+        }
         return pd.getPlacement();
 
     }
 
+    /**
+     * Get the counters and the durations of the turns so far
+     *
+     * @return the metrics of this ai
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void stopAI() {
-        System.out.println(ANSI_GREEN + "[LOG] Stop the AI" + ANSI_RESET);
+        if (Log.INFO) {
+            Log.info("Stop the AI, metrics:\n" + metrics.report());
+        }
     }
 
     // Non-AI Specific Methods
@@ -139,41 +170,39 @@ public class EchoAI implements CathedralAI {
      * @param player the player to calculate for
      * @return the placements that are calculated
      */
-    private Set<PlacementData> calculateCapturingPlacements(Game game, Color player) {
+    Set<PlacementData> calculateCapturingPlacements(Game game, Color player) {
         // 0. Initialization
         // Get the current score and regions for current player
         int currentScore = getScoreDifference(game, player);
-        int oldRegions = checkRegionsSize(game.getBoard().getField(), player);
-        // Get the region color for the player
-        Color c = Color.getSubColor(player);
+        Bitboard bitboard = Bitboard.of(game.getBoard().getField());
+        int oldRegions = bitboard.regions(player);
+        // The hull of the player and the cells the player can build on
+        CellMask hull = this.hullPlayerMasks.get(player);
+        CellMask placable = this.turnPlayerPlacableMasks.get(player);
         // Iterate over all possible placements
         Set<PlacementData> placementDataList = new HashSet<>();
+        // The buildings that have been tested, by their id in the footprint table
+        boolean[] tested = new boolean[footprints.getBuildings().size()];
         for (Building building : game.getPlacableBuildings(player)) {
-            for (Direction direction : building.getTurnable().getPossibleDirections()) {
-                for (int x = 0; x < 10; x++) {
-                    for (int y = 0; y < 10; y++) {
-                        Placement placement = new Placement(new Position(x, y), direction, building);
-                        // Positions of the placement shifted by the position
-                        Set<Position> placementPositions = placement
-                                .form()
-                                .stream()
-                                .map(p -> p.plus(placement.position()))
-                                .collect(Collectors.toSet());
-                        // Find all positions that are in the placement and the hull of the current player
-                        Set<Position> intersection = getSetIntersection(this.hullPlayerPositions.get(player), placementPositions);
-                        Set<Position> placableIntersection = getSetIntersection(this.turnPlayerPlacablePositions.get(player), placementPositions);
-                        // There are intersection positions, thus we can check this placement
-                        if (!intersection.isEmpty() &&  placableIntersection.size() == placementPositions.size()) {
-                            printPlayerPositionList(placableIntersection.stream().toList(), player);
-                            game.takeTurn(placement, false);
-
-                            int newScore = getScoreDifference(game, player);
-                            int newRegions = checkRegionsSize(game.getBoard().getField(), player);
-
-                            placementDataList.add(new PlacementData(placement, newRegions - oldRegions, currentScore - newScore));
-                            game.undoLastTurn();
-                        }
-                    }
+            // Buildings that the player owns more than once only have to be tested once
+            int id = footprints.id(building);
+            if (tested[id]) {
+                continue;
+            }
+            tested[id] = true;
+            // Every direction and origin of the building that is on the board, once for each set of fields
+            for (FootprintTable.Footprint footprint : footprints.canonicalFootprints(building)) {
+                Placement placement = footprint.getPlacement();
+                // The placement touches the hull of the current player, and every cell of it can be built on
+                if (hull.intersects(footprint.getForm()) && placable.containsAll(footprint.getForm())) {
+                    game.takeTurn(placement, false);
+
+                    int newScore = getScoreDifference(game, player);
+                    bitboard.load(game.getBoard().getField());
+                    int newRegions = bitboard.regions(player);
+
+                    placementDataList.add(new PlacementData(placement, newRegions - oldRegions, currentScore - newScore));
+                    game.undoLastTurn();
                 }
             }
         }
@@ -194,25 +223,33 @@ public class EchoAI implements CathedralAI {
         Color player = game.getCurrentPlayer();
         int oldScore = getScoreDifference(game, player);
         // Check the regions
-        int placementsStart = checkRegions(game.getBoard().getField(), player).size();
+        Bitboard bitboard = Bitboard.of(game.getBoard().getField());
+        int placementsStart = bitboard.regions(player);
         // Check, if this current field is applicable for checking it out, specifically if and only if the field belongs
 
         // to the current player or to no one at all
+        // The buildings that have been tested, by their id in the footprint table
+        boolean[] tested = new boolean[footprints.getBuildings().size()];
         for (Building building : game.getPlacableBuildings()) {
+            // Buildings that the player owns more than once only have to be tested once
+            int id = footprints.id(building);
+            if (tested[id]) {
+                continue;
+            }
+            tested[id] = true;
             // Test all turnables of the building
             for (Direction direction : building.getTurnable().getPossibleDirections()) {
-                Placement possPlacement = new Placement(x, y, direction, building);
+                // The footprint of the placement, which is null if the building would leave the board
+                FootprintTable.Footprint footprint = footprints.get(building, direction, x, y);
+                // Another direction of a symmetric building covers the same fields
+                if (footprint != null && !footprint.isCanonical()) {
+                    continue;
+                }
                 int deltaScore;
                 int deltaRegions;
-                    // Check, if the placement can be placed
-                // Positions of the placement shifted by the position
-                Set<Position> placementPositions = possPlacement
-                        .form()
-                        .stream()
-                        .map(p -> p.plus(possPlacement.position()))
-                        .collect(Collectors.toSet());
-                // Take a turn using the "fast" method, meaning without checking the regions
-                if (this.turnPlayerPlacablePositions.get(player).containsAll(placementPositions)) {
+                // Check, if the placement can be placed
+                if (footprint != null && this.turnPlayerPlacableMasks.get(player).containsAll(footprint.getForm())) {
+                    Placement possPlacement = footprint.getPlacement();
                     // If the placements should be checked, we do that now
                     if (checkPlacements) {
                         // Undo the just-took turn to be able to take a closer look at the regions
@@ -220,7 +257,8 @@ public class EchoAI implements CathedralAI {
                         game.takeTurn(possPlacement, false);
                         // Fetch the new score of the starting player
                         int newScore = getScoreDifference(game, player);
-                        int placementsEnd = checkRegions(game.getBoard().getField(), player).size();
+                        bitboard.load(game.getBoard().getField());
+                        int placementsEnd = bitboard.regions(player);
                         // Calculate the difference between the values regions & score
                         deltaScore = oldScore - newScore;
                         deltaRegions = placementsEnd - placementsStart;
@@ -240,115 +278,9 @@ public class EchoAI implements CathedralAI {
 
     }
 
-    /**
-     * Get the placements for a given player
-     *
-     * @param game   the game to get the placements from
-     * @param player the player to get the plcements for
-     * @return the placements of a given player
-     */
-    public Set<Placement> getPlayerPlacements(Game game, Color player) {
-        return game.getBoard().getPlacedBuildings().stream().filter(placement -> placement.building().getColor().equals(player)).collect(Collectors.toSet());
-    }
-
-    // Position methods
-    // ----------------
-
-    /**
-     * Calculate all positions in a game that belong to a given player
-     *
-     * @param game   the game to get the positions from
-     * @param player the player to get the positions for
-     * @return the position set for a given player
-     */
-    public Set<Position> getPlayerTurn(Game game, Color player) {
-        // Get all placements for a given player
-        Set<Placement> placements = getPlayerPlacements(game, player);
-        // Get all the positions for a given player
-        Set<Position> positions = new HashSet<>();
-        for (Placement placement : placements) {
-            // Only take this placement into account if it belongs to the player 'player'
-            Set<Position> placementTurn = calculateTurn(placement, placement.position());
-            positions.addAll(placementTurn);
-        }
-        return positions;
-    }
-
-    private Set<Position> calculateTurn(Placement placementData, Position p) {
-        return calculateTurn(placementData)
-                .stream()
-                .map(position -> position.plus(p))
-                .collect(Collectors.toSet());
-    }
-
-    private Set<Position> calculateTurn(Placement placementData) {
-        return new HashSet<>(placementData.building().turn(placementData.direction()));
-    }
-    // Hull Methods
-    // ------------
-
-    /**
-     * Calculate the hull around a placement shifted by a placement position
-     *
-     * @param placementData the data to calculate the hull around
-     * @param p             the position to shift by
-     * @return the shifted hull around a set of placements
-     */
-    private Set<Position> calculateHull(Placement placementData, Position p) {
-        return calculateHull(placementData)
-                .stream()
-                .map(position -> position.plus(p))
-                .collect(Collectors.toSet());
-    }
-
-    /**
-     * Calculate the hull of a set of positions
-     *
-     * @return the hull around the positions
-     */
-    private Set<Position> calculateHull(Placement placementData) {
-        return new HashSet<>(placementData.building().corners(placementData.direction()));
-    }
-
-    /**
-     * For a given player p, get the positions that represent the hull of each placement on the field
-     *
-     * @param game   the game to take the placements from
-     * @param player the player to take the
-     * @return the set of all positions
-     * @brief Calculate all hulls positions for given player
-     * @author malte quandt
-     * @version 1.0
-     */
-    public Set<Position> getPlayerHull(Game game, Color player) {
-        // Get all placements for a given player
-        Set<Placement> placements = getPlayerPlacements(game, player);
-        // Get all the positions for a given player
-        Set<Position> positions = new HashSet<>();
-        for (Placement placement : placements) {
-            // Only take this placement into account if it belongs to the player 'player'
-            Set<Position> placementHull = calculateHull(placement, placement.position());
-            positions.addAll(placementHull);
-        }
-        positions.removeAll(this.turnPlayerPositions.get(player));
-        return positions;
-    }
-
-
     // Utility methods
     // ---------------
 
-    /**
-     * Get the intersection of two sets of positions
-     *
-     * @param a the first position set
-     * @param b the second position set
-     * @return the set intersection
-     */
-    private Set<Position> getSetIntersection(Collection<Position> a, Collection<Position> b) {
-        return a.stream().filter(position -> b.contains(position)).collect(Collectors.toSet());
-    }
-
     /**
      * From a given set of nanoseconds, calculate the difference in milliseconds
      *
@@ -362,48 +294,49 @@ public class EchoAI implements CathedralAI {
 
 
     /**
-     * For both players, update the hull position set
+     * Update the cells of the buildings, the hulls and the placable cells for a board, which the placement finding
+     * methods depend on
+     *
+     * @param copy the game on which to operate
+     */
+    void prepare(Game copy) {
+        updateTurn(copy);
+        updateHull(copy);
+        updateTurnPlayerPlacables(copy);
+    }
+
+    /**
+     * For both players, update the hull cells
      *
      * @param copy the game on which to operate
-     * @before Make sure that the updateTurn method is called before this method!
      */
     private void updateHull(Game copy) {
         // Black:
-        this.hullPlayerPositions.put(Color.Black, getPlayerHull(copy, Color.Black));
+        this.hullPlayerMasks.put(Color.Black, footprints.playerHull(copy, Color.Black, new CellMask()));
         // White
-        this.hullPlayerPositions.put(Color.White, getPlayerHull(copy, Color.White));
+        this.hullPlayerMasks.put(Color.White, footprints.playerHull(copy, Color.White, new CellMask()));
         // Blue
-        this.hullPlayerPositions.put(Color.Blue, getPlayerHull(copy, Color.Blue));
+        this.hullPlayerMasks.put(Color.Blue, footprints.playerHull(copy, Color.Blue, new CellMask()));
     }
 
     /**
-     * For both players, update the turn position set
+     * For both players, update the turn cells
      *
      * @param copy the game on which to operate
      */
     private void updateTurn(Game copy) {
         // Black
-        this.turnPlayerPositions.put(Color.Black, getPlayerTurn(copy, Color.Black));
-        this.turnPlayerPositions.put(Color.Black_Owned, getPlayerTurn(copy, Color.Black_Owned));
+        this.turnPlayerMasks.put(Color.Black, footprints.playerTurn(copy, Color.Black, new CellMask()));
         // White
-        this.turnPlayerPositions.put(Color.White, getPlayerTurn(copy, Color.White));
-        this.turnPlayerPositions.put(Color.White_Owned, getPlayerTurn(copy, Color.White_Owned));
+        this.turnPlayerMasks.put(Color.White, footprints.playerTurn(copy, Color.White, new CellMask()));
         // Blue
-        this.turnPlayerPositions.put(Color.Blue, getPlayerTurn(copy, Color.Blue));
+        this.turnPlayerMasks.put(Color.Blue, footprints.playerTurn(copy, Color.Blue, new CellMask()));
     }
 
     private void updateTurnPlayerPlacables(Game copy) {
         Color player = copy.getCurrentPlayer();
-        Set<Position> playerPlacablePositions = new HashSet<>();
-        for (int i = 0; i < 10; i++) {
-            for (int j = 0; j < 10; j++) {
-                Color clr = copy.getBoard().getField()[i][j];
-                if (clr.equals(player.subColor()) || clr.equals(Color.None)) {
-                    playerPlacablePositions.add(new Position(i, j));
-                }
-            }
-        }
-        this.turnPlayerPlacablePositions.put(copy.getCurrentPlayer(), playerPlacablePositions);
+        CellMask playerPlacableMask = Bitboard.of(copy.getBoard().getField()).placable(player, new CellMask());
+        this.turnPlayerPlacableMasks.put(player, playerPlacableMask);
     }
 
     /**
@@ -436,7 +369,7 @@ public class EchoAI implements CathedralAI {
      * Print the skip message to the screen
      */
     private void skipMessage() {
-        System.out.println(ANSI_GREEN + "[LOG] Skip, as there are no valid placements no more!" + ANSI_RESET);
+        Log.info("Skip, as there are no valid placements no more!");
     }
 
     /**
@@ -455,46 +388,6 @@ public class EchoAI implements CathedralAI {
         }
     }
 
-    /**
-     * Check, if there are regions captured for this player
-     *
-     * @param field  the field to check
-     * @param player the player to check for
-     * @return the regions captured by the current player
-     */
-    private static Set<Position> checkRegions(Color[][] field, Color player) {
-        Set<Position> newPositions = new HashSet<>();
-        for (int i = 0; i < 10; i++) {
-            for (int j = 0; j < 10; j++) {
-                Position curr = new Position(i, j);
-                // If the field is a capture of the current player, and if the field is not yet captured
-                if (field[i][j].getId() == (player.getId() + 1)) {
-                    // Add that to the oldPosit
-                    newPositions.add(curr);
-                }
-            }
-        }
-        return newPositions;
-    }
-
-    /**
-     * Get the amount of regions captured by the current player at any given point in time
-     *
-     * @param field  the board to check on
-     * @param player the player's regions to check for
-     * @return the amount of regions the current player currently has
-     */
-    private static int checkRegionsSize(Color[][] field, Color player) {
-        int regions = 0;
-        for (int i = 0; i < 10; i++) {
-            for (int j = 0; j < 10; j++) {
-                // If the field is a capture of the current player, and if the field is not yet captured
-                if (field[i][j].getId() == (player.getId() + 1)) regions++;
-            }
-        }
-        return regions;
-    }
-
     /**
      * Print the board to the console in a more stylish fashion
      *
@@ -529,7 +422,7 @@ public class EchoAI implements CathedralAI {
             for (int y = 0; y < 10; y++) {
                 // Do nothing for an empty field
                 String fillColor = player == Color.Black ? ANSI_BLACK_BACKGROUND : ANSI_WHITE_BACKGROUND;
-                if (this.turnPlayerPositions.get(player).contains(new Position(x, y))) {
+                if (this.turnPlayerMasks.get(player).get(x, y)) {
                     System.out.print(fillColor + y + x + ANSI_RESET);
                 } else {
                     System.out.print("  ");
@@ -546,7 +439,7 @@ public class EchoAI implements CathedralAI {
             for (int y = 0; y < 10; y++) {
                 // Do nothing for an empty field
                 String fillColor = player == Color.Black ? ANSI_BLACK_BACKGROUND : ANSI_WHITE_BACKGROUND;
-                if (this.hullPlayerPositions.get(player).contains(new Position(x, y))) {
+                if (this.hullPlayerMasks.get(player).get(x, y)) {
                     System.out.print(fillColor + y + x + ANSI_RESET);
                 } else {
                     System.out.print("  ");
@@ -557,13 +450,13 @@ public class EchoAI implements CathedralAI {
         }
     }
 
-    private void printPlayerPositionList(List<Position> positions, Color player) {
+    private void printPlayerMask(CellMask cells, Color player) {
         for (int x = 0; x < 10; x++) {
             System.out.print("|");
             for (int y = 0; y < 10; y++) {
                 // Do nothing for an empty field
                 String fillColor = player == Color.Black ? ANSI_BLACK_BACKGROUND : ANSI_WHITE_BACKGROUND;
-                if (positions.contains(new Position(x, y))) {
+                if (cells.get(x, y)) {
                     System.out.print(fillColor + y + x + ANSI_RESET);
                 } else {
                     System.out.print("  ");
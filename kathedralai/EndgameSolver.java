@@ -0,0 +1,320 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import de.fhkiel.ki.cathedral.*;
+
+import java.util.*;
+
+/**
+ * Exact search of the end of a game. Once only a few buildings are left to place, or only a few fields are free, the
+ * game tree is small enough to be searched to its end. The value of a board is the final score of the opponent minus
+ * the final score of the player to move, as the player with fewer points left wins. Solved boards are memorised in a
+ * transposition table, which stays valid for the whole game, as the values do not depend on the depth of the search.
+ * An instance keeps scratch buffers and must not be shared between threads.
+ */
+public final class EndgameSolver {
+    // The default amount of buildings that each player may have left at most for the solver to be used
+    public static final int DEFAULT_PIECES = 3;
+    // The default amount of free fields, below which the solver is used
+    public static final int DEFAULT_CELLS = 12;
+    // The default memory budget of the memorised boards in megabytes
+    public static final int DEFAULT_TABLE_MEGABYTES = 16;
+
+    /**
+     * The outcome of a search
+     */
+    public enum Outcome {
+        // The best placement has been found
+        SOLVED,
+        // The player to move can not place any building and has to pass
+        PASS,
+        // The search did not finish in time
+        TIMEOUT
+    }
+
+    // Instance variables
+    // ------------------
+
+    // The footprints of the buildings
+    private final FootprintTable footprints;
+    // Hashing of the searched boards
+    private final Zobrist zobrist;
+    // Evaluator for the placements, reloaded for every searched board
+    private final CaptureEvaluator evaluator;
+    // The footprints that fit onto the searched board
+    private final MoveIndex moveIndex;
+    // The placements of the searched boards, by their ply, reused for every board of that ply
+    private final List<CandidateBuffer> buffers;
+    // The solved boards, created with the first search, as most games never reach the solver
+    private TranspositionTable table;
+    // The amount of buildings that each player may have left at most for the solver to be used
+    private final int pieces;
+    // The amount of free fields, below which the solver is used
+    private final int cells;
+    // The memory budget of the memorised boards in megabytes
+    private final int tableMegabytes;
+    // The point in time at which the current search has to be finished
+    private Deadline deadline;
+    // The value of the last solved board, for the player to move
+    private double value;
+    // The amount of boards that have been visited in the last search
+    private long nodes;
+    // The best placement of the solved board, or NO_MOVE if the player to move has to pass
+    private int rootMove;
+    // The outcome of the last search
+    private Outcome outcome;
+
+    // Constructors
+    // ------------
+    public EndgameSolver(FootprintTable footprints, Zobrist zobrist) {
+        this(footprints, zobrist, DEFAULT_PIECES, DEFAULT_CELLS, DEFAULT_TABLE_MEGABYTES);
+    }
+
+    public EndgameSolver(FootprintTable footprints, Zobrist zobrist, int pieces, int cells, int tableMegabytes) {
+        this.footprints = footprints;
+        this.zobrist = zobrist;
+        this.evaluator = new CaptureEvaluator(footprints);
+        this.moveIndex = new MoveIndex(footprints);
+        this.buffers = new ArrayList<>();
+        this.pieces = pieces;
+        this.cells = cells;
+        this.tableMegabytes = tableMegabytes;
+    }
+
+    /**
+     * Check if the end of a game is close enough to be solved
+     *
+     * @param game the game to check
+     * @return true, if both players have few buildings left to place or few fields are free
+     */
+    public boolean applies(Game game) {
+        if (game.getPlacableBuildings(Color.Black).size() <= pieces
+                && game.getPlacableBuildings(Color.White).size() <= pieces) {
+            return true;
+        }
+        return Bitboard.of(game.getBoard().getField()).count(Color.None) <= cells;
+    }
+
+    /**
+     * Search the best placement of the player to move to the end of the game
+     *
+     * @param game     the game to solve, which is not changed
+     * @param deadline the point in time at which the search has to be given up
+     * @return the placement with the best final score difference, or null if the search did not finish in time or
+     * the player can not place any building, which {@link #getOutcome()} tells apart
+     */
+    public Placement solve(Game game, Deadline deadline) {
+        this.deadline = deadline;
+        this.nodes = 0;
+        this.rootMove = TranspositionTable.NO_MOVE;
+        if (table == null) {
+            table = new TranspositionTable(tableMegabytes, TranspositionTable.Replacement.DEPTH_PREFERRED);
+        }
+        Game copy = game.copy();
+        moveIndex.sync(copy);
+        try {
+            value = negamax(copy, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        } catch (SearchTimeout timeout) {
+            outcome = Outcome.TIMEOUT;
+            return null;
+        }
+        if (rootMove == TranspositionTable.NO_MOVE) {
+            outcome = Outcome.PASS;
+            return null;
+        }
+        outcome = Outcome.SOLVED;
+        return footprints.get(rootMove).getPlacement();
+    }
+
+    /**
+     * Calculate the final score difference of a board for the player to move
+     *
+     * @param game  the game to search on, which is returned in the same state
+     * @param ply   the distance of the board from the solved board
+     * @param alpha the value the player to move is already guaranteed
+     * @param beta  the value the opponent is already guaranteed, negated
+     * @return the final score of the opponent minus the final score of the player to move
+     */
+    private double negamax(Game game, int ply, double alpha, double beta) {
+        if (deadline.isExpired()) {
+            throw new SearchTimeout();
+        }
+        nodes++;
+        long hash = zobrist.hash(game);
+        double alphaStart = alpha;
+        int hashMove = TranspositionTable.NO_MOVE;
+        int slot = table.probe(hash);
+        if (slot >= 0) {
+            hashMove = table.move(slot);
+            double stored = table.value(slot);
+            switch (table.bound(slot)) {
+                case TranspositionTable.EXACT -> {
+                    return found(ply, stored, hashMove);
+                }
+                case TranspositionTable.LOWER_BOUND -> alpha = Math.max(alpha, stored);
+                case TranspositionTable.UPPER_BOUND -> beta = Math.min(beta, stored);
+            }
+            if (alpha >= beta) {
+                return found(ply, stored, hashMove);
+            }
+        }
+
+        int remaining = remainingPieces(game);
+        CandidateBuffer moves = generatePlacements(game, ply, hashMove);
+        if (moves.isEmpty()) {
+            // The opponent is searched with the window of this board, thus the result can be a bound as well
+            double result = pass(game, ply, alpha, beta);
+            table.store(hash, remaining, result, bound(result, alphaStart, beta), TranspositionTable.NO_MOVE);
+            return found(ply, result, TranspositionTable.NO_MOVE);
+        }
+        double best = Double.NEGATIVE_INFINITY;
+        int bestMove = moves.code(moves.ordered(0));
+        for (int rank = 0; rank < moves.size(); rank++) {
+            int move = moves.ordered(rank);
+            int code = moves.code(move);
+            FootprintTable.Footprint footprint = footprints.get(code);
+            if (!game.takeTurn(footprint.getPlacement(), false)) {
+                continue;
+            }
+            moveIndex.make(game, footprint, moves.positions(move));
+            double result = -negamax(game, ply + 1, -beta, -alpha);
+            game.undoLastTurn();
+            moveIndex.unmake();
+            if (result > best) {
+                best = result;
+                bestMove = code;
+            }
+            if (result > alpha) {
+                alpha = result;
+            }
+            if (alpha >= beta) {
+                break;
+            }
+        }
+
+        // The rules engine rejected every generated placement, thus the player has to pass after all
+        if (best == Double.NEGATIVE_INFINITY) {
+            double result = pass(game, ply, alpha, beta);
+            table.store(hash, remaining, result, bound(result, alphaStart, beta), TranspositionTable.NO_MOVE);
+            return found(ply, result, TranspositionTable.NO_MOVE);
+        }
+        table.store(hash, remaining, best, bound(best, alphaStart, beta), bestMove);
+        return found(ply, best, bestMove);
+    }
+
+    /**
+     * Return the value of a searched board, and keep its best placement if it is the solved board
+     *
+     * @param ply   the distance of the board from the solved board
+     * @param value the value of the board
+     * @param move  the packed code of the best placement of the board, or NO_MOVE if the player has to pass
+     * @return the value
+     */
+    private double found(int ply, double value, int move) {
+        if (ply == 0) {
+            rootMove = move;
+        }
+        return value;
+    }
+
+    /**
+     * Classify the value of a board against the window it has been searched with
+     *
+     * @param value the value of the board
+     * @param alpha the lower bound of the window at the start of the search
+     * @param beta  the upper bound of the window
+     * @return if the value is exact, or only a lower or upper bound
+     */
+    private static byte bound(double value, double alpha, double beta) {
+        if (value <= alpha) {
+            return TranspositionTable.UPPER_BOUND;
+        } else if (value >= beta) {
+            return TranspositionTable.LOWER_BOUND;
+        }
+        return TranspositionTable.EXACT;
+    }
+
+    /**
+     * Continue the search for a player that can not place any building. The opponent keeps placing, until neither
+     * player can place a building anymore.
+     *
+     * @param game  the game with the player to move that has to pass
+     * @param ply   the distance of the board from the solved board
+     * @param alpha the lower bound of the window
+     * @param beta  the upper bound of the window
+     * @return the final score difference for the player that passes
+     */
+    private double pass(Game game, int ply, double alpha, double beta) {
+        Game next = game.copy();
+        next.forfeitTurn();
+        // The game is over, if the opponent can not place a building either, the buffer of the ply is empty anyway
+        if (generatePlacements(next, ply, TranspositionTable.NO_MOVE).isEmpty()) {
+            Color player = game.getCurrentPlayer();
+            return getScore(game, opponent(player)) - getScore(game, player);
+        }
+        return -negamax(next, ply + 1, -beta, -alpha);
+    }
+
+    /**
+     * Generate all placements of the player to move. Large buildings and placements that capture regions are searched
+     * first, and the best placement of an earlier search before all of them.
+     *
+     * @param game     the game to generate the placements for
+     * @param ply      the distance of the board from the solved board, which selects the buffer of the placements
+     * @param hashMove the packed code of the best placement of an earlier search, or NO_MOVE
+     * @return the buffer of the ply with the placements, best first
+     */
+    private CandidateBuffer generatePlacements(Game game, int ply, int hashMove) {
+        while (buffers.size() <= ply) {
+            buffers.add(new CandidateBuffer(footprints));
+        }
+        CandidateBuffer moves = buffers.get(ply);
+        moves.generate(game, evaluator, moveIndex);
+        // The size of the building first, the captured regions only break ties
+        moves.rate(0.0, CellMask.CELLS, 1.0, 0.0, 0.0);
+        moves.sort(hashMove);
+        return moves;
+    }
+
+    private static int remainingPieces(Game game) {
+        return game.getPlacableBuildings(Color.Black).size() + game.getPlacableBuildings(Color.White).size();
+    }
+
+    private static Color opponent(Color player) {
+        return player.equals(Color.White) ? Color.Black : Color.White;
+    }
+
+    private static int getScore(Game game, Color player) {
+        Object a = game.score().get(player);
+        if (a != null) {
+            return (int) a;
+        } else {
+            return 47;
+        }
+    }
+
+    /**
+     * Get the final score difference of the last solved board, for the player to move
+     *
+     * @return the value of the last solved board
+     */
+    public double getValue() {
+        return value;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Thrown to unwind the search when the deadline is reached
+     */
+    private static final class SearchTimeout extends RuntimeException {
+        SearchTimeout() {
+            super(null, null, false, false);
+        }
+    }
+}
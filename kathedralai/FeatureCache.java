@@ -0,0 +1,139 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size cache of the features of placements that do not depend on the weights: the regions a placement captures
+ * and the change of the score of its player. The features are keyed by the Zobrist hash of the board and the packed
+ * code of the placement, thus a board that is seen again, in a later turn, while pondering or in another game of the
+ * same process, does not have to check its regions again. Rating the placements with other weights is only a dot
+ * product over the cached features.
+ * <p>
+ * Each key has a single slot, which is always replaced. The key of an entry is stored xor its features, so that the
+ * entries can be read and written by many threads without locking: an entry that is torn by a concurrent write does
+ * not match its key anymore and is a miss.
+ */
+public final class FeatureCache {
+    // Returned by a probe if the features are not in the cache
+    public static final long MISS = 0L;
+
+    // The amount of bytes a single entry uses: the checked key and the features
+    private static final int ENTRY_BYTES = 2 * Long.BYTES;
+    // Set in every stored entry, so that an empty slot is never a hit
+    private static final long PRESENT = 1L << 32;
+
+    // Instance variables
+    // ------------------
+
+    // Mask to get the slot of a key
+    private final int slotMask;
+    // The key xor the features of each slot
+    private final AtomicLongArray checks;
+    // The features of each slot
+    private final AtomicLongArray features;
+
+    // Constructors
+    // ------------
+
+    /**
+     * Create a new cache that uses at most the given amount of memory
+     *
+     * @param megabytes the memory budget in megabytes
+     */
+    public FeatureCache(int megabytes) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("The feature cache needs at least 1 MB, but got " + megabytes);
+        }
+        long budget = (long) megabytes * 1024 * 1024;
+        // The largest power of two amount of slots that fits into the budget
+        long slots = Long.highestOneBit(Math.max(1, budget / ENTRY_BYTES));
+        slots = Math.min(slots, 1 << 28);
+        this.slotMask = (int) slots - 1;
+        this.checks = new AtomicLongArray((int) slots);
+        this.features = new AtomicLongArray((int) slots);
+    }
+
+    // Keys
+    // ----
+
+    /**
+     * Get the key of a placement on a board
+     *
+     * @param boardHash the Zobrist hash of the board
+     * @param code      the packed code of the placement
+     * @return the key of the placement on the board
+     */
+    public static long key(long boardHash, int code) {
+        // The finalizer of SplitMix64, so that the keys of neighbouring codes spread over the whole cache
+        long key = boardHash + (code + 1) * 0x9E3779B97F4A7C15L;
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return key ^ (key >>> 31);
+    }
+
+    // Instance methods
+    // ----------------
+
+    /**
+     * Look up the features of a placement
+     *
+     * @param key the key of the placement, from {@link #key(long, int)}
+     * @return the packed features, or {@link #MISS} if they are not in the cache
+     */
+    public long probe(long key) {
+        int slot = (int) key & slotMask;
+        long entry = features.getOpaque(slot);
+        if ((entry & PRESENT) == 0 || (checks.getOpaque(slot) ^ entry) != key) {
+            return MISS;
+        }
+        return entry;
+    }
+
+    /**
+     * Store the features of a placement, replacing the entry of its slot
+     *
+     * @param key        the key of the placement, from {@link #key(long, int)}
+     * @param positions  the amount of region cells the placement captures
+     * @param deltaScore the change of the score of the player
+     */
+    public void store(long key, int positions, int deltaScore) {
+        int slot = (int) key & slotMask;
+        long entry = PRESENT | (positions & 0xFFFFL) << 16 | (deltaScore & 0xFFFFL);
+        features.setOpaque(slot, entry);
+        checks.setOpaque(slot, key ^ entry);
+    }
+
+    /**
+     * Remove every entry from the cache
+     */
+    public void clear() {
+        for (int slot = 0; slot <= slotMask; slot++) {
+            features.setOpaque(slot, 0L);
+            checks.setOpaque(slot, 0L);
+        }
+    }
+
+    /**
+     * Get the amount of region cells from packed features
+     *
+     * @param entry the packed features of a hit
+     * @return the amount of region cells the placement captures
+     */
+    public static int positions(long entry) {
+        return (short) (entry >>> 16);
+    }
+
+    /**
+     * Get the change of the score from packed features
+     *
+     * @param entry the packed features of a hit
+     * @return the change of the score of the player
+     */
+    public static int deltaScore(long entry) {
+        return (short) entry;
+    }
+
+    public int capacity() {
+        return slotMask + 1;
+    }
+}
@@ -0,0 +1,469 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import de.fhkiel.ki.cathedral.*;
+
+import java.util.*;
+
+/**
+ * Table of the footprints of every building in every direction at every origin on the board. The table is built
+ * once when the AI is initialized, so that the placement loops do not have to shift the forms of the buildings
+ * for every candidate anew. Origins at which the building would leave the board are not part of the table.
+ * <p>
+ * Symmetric buildings cover the same cells in different directions at different origins. Of every group of footprints
+ * of a building that cover the same cells, the first one in the order of the directions is the canonical one, and
+ * the move generators only take the canonical footprints, as the others lead to the same board.
+ */
+public final class FootprintTable {
+    // Layout of the packed code of a footprint: building id, direction index, x and y
+    private static final int X_SHIFT = 4;
+    private static final int DIRECTION_SHIFT = X_SHIFT + 4;
+    private static final int BUILDING_SHIFT = DIRECTION_SHIFT + 2;
+
+    // Instance variables
+    // ------------------
+
+    // The footprints of each building, indexed by [direction index][cell index], null if the origin is off-board
+    private final Map<Building, Footprint[][]> table;
+    // All footprints of a building that are on the board, over all directions
+    private final Map<Building, Footprint[]> onBoard;
+    // The canonical footprints of a building that are on the board
+    private final Map<Building, Footprint[]> canonical;
+    // The buildings of the table in the order in which they were registered
+    private final List<Building> buildings;
+    // The id of each building
+    private final Map<Building, Integer> ids;
+    // All footprints on the board, numbered densely, with the footprints of each building next to each other and
+    // the canonical ones of a building before the others
+    private final List<Footprint> all;
+    // The first index, the end of the canonical indices and the end of all indices of the footprints of each
+    // building, by the id of the building
+    private final List<int[]> ranges;
+    // The indices of the footprints that cover each cell
+    private int[][] covering;
+
+    // Constructors
+    // ------------
+    private FootprintTable() {
+        table = new HashMap<>();
+        onBoard = new HashMap<>();
+        canonical = new HashMap<>();
+        buildings = new ArrayList<>();
+        ids = new HashMap<>();
+        all = new ArrayList<>();
+        ranges = new ArrayList<>();
+    }
+
+    /**
+     * Build the table for all buildings that are part of a game
+     *
+     * @param game the game to take the buildings from
+     * @return the table of all footprints
+     */
+    public static FootprintTable create(Game game) {
+        FootprintTable footprints = new FootprintTable();
+        // The cathedral first, as it is the first building that is placed
+        for (Color player : List.of(Color.Blue, Color.Black, Color.White)) {
+            for (Building building : game.getPlacableBuildings(player)) {
+                footprints.register(building);
+            }
+        }
+        // Buildings that are already on the board, if the ai is started in the middle of a game
+        for (Placement placement : game.getBoard().getPlacedBuildings()) {
+            footprints.register(placement.building());
+        }
+        footprints.indexCells();
+        return footprints;
+    }
+
+    /**
+     * Calculate all footprints of a building, if the building is not yet part of the table
+     *
+     * @param building the building to add
+     */
+    private void register(Building building) {
+        if (table.containsKey(building)) {
+            return;
+        }
+        ids.put(building, buildings.size());
+        buildings.add(building);
+
+        List<Direction> directions = building.getTurnable().getPossibleDirections();
+        Footprint[][] byDirection = new Footprint[directions.size()][CellMask.CELLS];
+        List<Footprint> footprints = new ArrayList<>();
+        // The canonical footprint of each set of covered cells
+        Map<CellMask, Footprint> byForm = new HashMap<>();
+        List<Footprint> canonicalFootprints = new ArrayList<>();
+        List<Footprint> duplicates = new ArrayList<>();
+        for (int d = 0; d < directions.size(); d++) {
+            Direction direction = directions.get(d);
+            List<Position> form = building.turn(direction);
+            List<Position> corners = building.corners(direction);
+            for (int x = 0; x < CellMask.SIZE; x++) {
+                for (int y = 0; y < CellMask.SIZE; y++) {
+                    int code = encode(ids.get(building), d, x, y);
+                    Footprint footprint = createFootprint(new Placement(x, y, direction, building), code, form, corners);
+                    byDirection[d][CellMask.index(x, y)] = footprint;
+                    if (footprint == null) {
+                        continue;
+                    }
+                    footprints.add(footprint);
+                    footprint.canonical = byForm.computeIfAbsent(footprint.getForm(), key -> footprint);
+                    (footprint.isCanonical() ? canonicalFootprints : duplicates).add(footprint);
+                }
+            }
+        }
+        int start = all.size();
+        for (Footprint footprint : canonicalFootprints) {
+            footprint.index = all.size();
+            all.add(footprint);
+        }
+        int canonicalEnd = all.size();
+        for (Footprint footprint : duplicates) {
+            footprint.index = all.size();
+            all.add(footprint);
+        }
+        table.put(building, byDirection);
+        onBoard.put(building, footprints.toArray(new Footprint[0]));
+        canonical.put(building, canonicalFootprints.toArray(new Footprint[0]));
+        ranges.add(new int[]{start, canonicalEnd, all.size()});
+    }
+
+    /**
+     * List the footprints that cover each cell, once all buildings are registered
+     */
+    private void indexCells() {
+        List<List<Integer>> lists = new ArrayList<>(CellMask.CELLS);
+        for (int i = 0; i < CellMask.CELLS; i++) {
+            lists.add(new ArrayList<>());
+        }
+        for (Footprint footprint : all) {
+            CellMask form = footprint.getForm();
+            for (int cell = form.nextSetBit(0); cell >= 0; cell = form.nextSetBit(cell + 1)) {
+                lists.get(cell).add(footprint.getIndex());
+            }
+        }
+        covering = new int[CellMask.CELLS][];
+        for (int i = 0; i < CellMask.CELLS; i++) {
+            covering[i] = lists.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Shift the form and the corners of a building to the position of the placement
+     *
+     * @param placement the placement to create the footprint for
+     * @param code      the packed code of the placement
+     * @param form      the unshifted form of the building in the direction of the placement
+     * @param corners   the unshifted corners of the building in the direction of the placement
+     * @return the footprint, or null if a part of the building would be off the board
+     */
+    private static Footprint createFootprint(Placement placement, int code, List<Position> form, List<Position> corners) {
+        CellMask formMask = new CellMask();
+        for (Position position : form) {
+            int x = position.x() + placement.x();
+            int y = position.y() + placement.y();
+            if (!CellMask.onBoard(x, y)) {
+                return null;
+            }
+            formMask.set(x, y);
+        }
+        CellMask hullMask = new CellMask();
+        for (Position position : corners) {
+            int x = position.x() + placement.x();
+            int y = position.y() + placement.y();
+            if (CellMask.onBoard(x, y)) {
+                hullMask.set(x, y);
+            }
+        }
+        hullMask.andNot(formMask);
+        return new Footprint(placement, code, formMask, hullMask);
+    }
+
+    // Packed codes
+    // ------------
+
+    /**
+     * Pack a placement into a single int
+     *
+     * @param buildingId the id of the building in this table
+     * @param direction  the index of the direction in the possible directions of the building
+     * @param x          the x coordinate of the origin
+     * @param y          the y coordinate of the origin
+     * @return the packed code
+     */
+    public static int encode(int buildingId, int direction, int x, int y) {
+        return (buildingId << BUILDING_SHIFT) | (direction << DIRECTION_SHIFT) | (x << X_SHIFT) | y;
+    }
+
+    public static int buildingId(int code) {
+        return code >>> BUILDING_SHIFT;
+    }
+
+    public static int directionIndex(int code) {
+        return (code >>> DIRECTION_SHIFT) & 0x3;
+    }
+
+    public static int x(int code) {
+        return (code >>> X_SHIFT) & 0xF;
+    }
+
+    public static int y(int code) {
+        return code & 0xF;
+    }
+
+    /**
+     * Get the exclusive upper bound of all codes of this table
+     *
+     * @return the upper bound of the codes
+     */
+    public int codeLimit() {
+        return buildings.size() << BUILDING_SHIFT;
+    }
+
+    /**
+     * Get the footprint of a packed code
+     *
+     * @param code the packed code of a footprint
+     * @return the footprint, or null if the code does not describe a footprint on the board
+     */
+    public Footprint get(int code) {
+        int id = buildingId(code);
+        if (code < 0 || id >= buildings.size()) {
+            return null;
+        }
+        Footprint[][] byDirection = table.get(buildings.get(id));
+        int direction = directionIndex(code);
+        int x = x(code);
+        int y = y(code);
+        if (direction >= byDirection.length || !CellMask.onBoard(x, y)) {
+            return null;
+        }
+        return byDirection[direction][CellMask.index(x, y)];
+    }
+
+    // Lookup
+    // ------
+
+    /**
+     * Get the footprint of a building in a given direction at a given origin
+     *
+     * @param building  the building to place
+     * @param direction the direction of the building
+     * @param x         the x coordinate of the origin
+     * @param y         the y coordinate of the origin
+     * @return the footprint, or null if the building would leave the board
+     */
+    public Footprint get(Building building, Direction direction, int x, int y) {
+        Footprint[][] byDirection = table.get(building);
+        if (byDirection == null || !CellMask.onBoard(x, y)) {
+            return null;
+        }
+        int d = building.getTurnable().getPossibleDirections().indexOf(direction);
+        return d < 0 ? null : byDirection[d][CellMask.index(x, y)];
+    }
+
+    /**
+     * Get the footprint of a concrete placement
+     *
+     * @param placement the placement to look up
+     * @return the footprint, or null if the placement would leave the board
+     */
+    public Footprint get(Placement placement) {
+        return get(placement.building(), placement.direction(), placement.x(), placement.y());
+    }
+
+    /**
+     * Get every footprint of a building that lies completely on the board
+     *
+     * @param building the building to get the footprints for
+     * @return the footprints over all directions and origins
+     */
+    public Footprint[] footprints(Building building) {
+        Footprint[] footprints = onBoard.get(building);
+        return footprints != null ? footprints : new Footprint[0];
+    }
+
+    /**
+     * Get the canonical footprints of a building that lie completely on the board, which cover every set of cells
+     * the building can cover exactly once
+     *
+     * @param building the building to get the footprints for
+     * @return the canonical footprints over all directions and origins
+     */
+    public Footprint[] canonicalFootprints(Building building) {
+        Footprint[] footprints = canonical.get(building);
+        return footprints != null ? footprints : new Footprint[0];
+    }
+
+    /**
+     * Get the cells that are covered by the placed buildings of a player
+     *
+     * @param game   the game to take the placed buildings from
+     * @param player the player to get the cells for
+     * @param target the mask to write the result into
+     * @return the target mask
+     */
+    public CellMask playerTurn(Game game, Color player, CellMask target) {
+        target.clear();
+        for (Placement placement : game.getBoard().getPlacedBuildings()) {
+            if (placement.building().getColor().equals(player)) {
+                target.or(get(placement).getForm());
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Get the cells that surround the placed buildings of a player, without the cells of the buildings themselves
+     *
+     * @param game   the game to take the placed buildings from
+     * @param player the player to get the hull for
+     * @param target the mask to write the result into
+     * @return the target mask
+     */
+    public CellMask playerHull(Game game, Color player, CellMask target) {
+        target.clear();
+        CellMask turn = new CellMask();
+        for (Placement placement : game.getBoard().getPlacedBuildings()) {
+            if (placement.building().getColor().equals(player)) {
+                Footprint footprint = get(placement);
+                target.or(footprint.getHull());
+                turn.or(footprint.getForm());
+            }
+        }
+        target.andNot(turn);
+        return target;
+    }
+
+    // Dense indices
+    // -------------
+
+    /**
+     * Get the amount of footprints on the board, which is the exclusive upper bound of their dense indices
+     *
+     * @return the amount of footprints
+     */
+    public int size() {
+        return all.size();
+    }
+
+    /**
+     * Get the footprint with a dense index
+     *
+     * @param index the dense index, between 0 and {@link #size()}
+     * @return the footprint
+     */
+    public Footprint footprint(int index) {
+        return all.get(index);
+    }
+
+    /**
+     * Get the first dense index of the footprints of a building
+     *
+     * @param building the building
+     * @return the first index
+     */
+    public int start(Building building) {
+        return ranges.get(ids.get(building))[0];
+    }
+
+    /**
+     * Get the end of the dense indices of the canonical footprints of a building, which come first
+     *
+     * @param building the building
+     * @return the exclusive end of the canonical indices
+     */
+    public int canonicalEnd(Building building) {
+        return ranges.get(ids.get(building))[1];
+    }
+
+    /**
+     * Get the end of the dense indices of the footprints of a building
+     *
+     * @param building the building
+     * @return the exclusive end of the indices
+     */
+    public int end(Building building) {
+        return ranges.get(ids.get(building))[2];
+    }
+
+    /**
+     * Get the dense indices of all footprints that cover a cell
+     *
+     * @param cell the index of the cell
+     * @return the indices of the footprints, do not modify them
+     */
+    public int[] covering(int cell) {
+        return covering[cell];
+    }
+
+    public int id(Building building) {
+        return ids.get(building);
+    }
+
+    public Building building(int id) {
+        return buildings.get(id);
+    }
+
+    public List<Building> getBuildings() {
+        return Collections.unmodifiableList(buildings);
+    }
+
+    /**
+     * A building placed in a specific direction at a specific origin, with the cells it covers and surrounds
+     */
+    public static final class Footprint {
+        // The concrete placement of this footprint
+        private final Placement placement;
+        // The packed code of the placement
+        private final int code;
+        // The dense index of the footprint in the table
+        private int index;
+        // The footprint of the same building that covers the same cells and is generated instead of this one
+        private Footprint canonical;
+        // The cells covered by the building
+        private final CellMask form;
+        // The cells around the building, including the diagonal corners
+        private final CellMask hull;
+
+        Footprint(Placement placement, int code, CellMask form, CellMask hull) {
+            this.placement = placement;
+            this.code = code;
+            this.form = form;
+            this.hull = hull;
+        }
+
+        public Placement getPlacement() {
+            return placement;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Footprint getCanonical() {
+            return canonical;
+        }
+
+        /**
+         * Check if this footprint is the one that is generated for the cells it covers
+         *
+         * @return true, if no other footprint of the building covers the same cells before this one
+         */
+        public boolean isCanonical() {
+            return canonical == this;
+        }
+
+        public CellMask getForm() {
+            return form;
+        }
+
+        public CellMask getHull() {
+            return hull;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values with buckets of a fixed relative precision, in the manner of HdrHistogram: every
+ * power of two is split into 16 linear buckets, thus a recorded value is off by at most 1/16 of itself. Recording is
+ * lock free and never allocates, so that it can be done from every worker.
+ */
+public final class Histogram {
+    // The amount of linear buckets in every power of two, as bits
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough buckets for every positive long
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    // Instance variables
+    // ------------------
+
+    // The unit of the reported values
+    private final String unit;
+    // The recorded values are divided by the scale for the report
+    private final long scale;
+    // The amount of recorded values in each bucket
+    private final AtomicLongArray counts;
+    // The amount and the sum of all recorded values
+    private final LongAdder count;
+    private final LongAdder sum;
+    // The largest recorded value
+    private final AtomicLong max;
+
+    // Constructors
+    // ------------
+    public Histogram(String unit, long scale) {
+        this.unit = unit;
+        this.scale = scale;
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Record a value, negative values are recorded as 0
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucket(v));
+        count.increment();
+        sum.add(v);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    /**
+     * Get the bucket of a value: values below 16 have a bucket of their own, larger values are put into one of the
+     * 16 buckets of their power of two
+     *
+     * @param value the non-negative value
+     * @return the index of the bucket
+     */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Get the largest value that falls into a bucket
+     *
+     * @param bucket the index of the bucket
+     * @return the upper end of the bucket
+     */
+    private static long highest(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long lowest = (1L << exponent) | (sub << (exponent - SUB_BUCKET_BITS));
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Get a percentile of the recorded values
+     *
+     * @param fraction the percentile as a fraction in [0, 1]
+     * @return the upper end of the bucket of the percentile, or 0 if nothing has been recorded
+     */
+    public long percentile(double fraction) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMean() {
+        long total = count.sum();
+        return total == 0 ? 0.0 : (double) sum.sum() / total;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n %d, mean %.1f%s, p50 %d%s, p90 %d%s, p99 %d%s, max %d%s", getCount(), getMean() / scale, unit,
+                percentile(0.5) / scale, unit, percentile(0.9) / scale, unit, percentile(0.99) / scale, unit,
+                getMax() / scale, unit);
+    }
+}
@@ -0,0 +1,71 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+/**
+ * Console log of the ais with a level that is fixed at startup with the system property {@code kathedral.log} (0 = off,
+ * 1 = errors, 2 = warnings, 3 = info, 4 = debug), warnings by default so that the turns stay quiet. The level flags are
+ * static final, thus the JIT removes the disabled calls completely. Messages that have to be built are guarded with the
+ * flag, so that the string is not concatenated either:
+ * <pre>{@code if (Log.INFO) Log.info("Searched " + nodes + " nodes");}</pre>
+ */
+public final class Log {
+    // The levels
+    public static final int LEVEL_OFF = 0;
+    public static final int LEVEL_ERROR = 1;
+    public static final int LEVEL_WARN = 2;
+    public static final int LEVEL_INFO = 3;
+    public static final int LEVEL_DEBUG = 4;
+
+    // The level of this run
+    public static final int LEVEL = Integer.getInteger("kathedral.log", LEVEL_WARN);
+    public static final boolean ERROR = LEVEL >= LEVEL_ERROR;
+    public static final boolean WARN = LEVEL >= LEVEL_WARN;
+    public static final boolean INFO = LEVEL >= LEVEL_INFO;
+    public static final boolean DEBUG = LEVEL >= LEVEL_DEBUG;
+
+    /* Colors */
+    private static final String ANSI_RESET = "\u001B[0m";
+    private static final String ANSI_GREEN = "\u001B[32m";
+    private static final String ANSI_RED = "\u001B[31m";
+    private static final String ANSI_YELLOW = "\u001B[33m";
+    private static final String ANSI_CYAN = "\u001B[36m";
+
+    private Log() {
+    }
+
+    public static void error(String message) {
+        if (ERROR) {
+            System.out.println(ANSI_RED + "[ERROR] " + message + ANSI_RESET);
+        }
+    }
+
+    /**
+     * Log an error together with the exception that caused it
+     *
+     * @param message the description of what failed
+     * @param cause   the exception, whose stack trace follows the message
+     */
+    public static void error(String message, Throwable cause) {
+        if (ERROR) {
+            error(message + ": " + cause);
+            cause.printStackTrace(System.out);
+        }
+    }
+
+    public static void warn(String message) {
+        if (WARN) {
+            System.out.println(ANSI_YELLOW + "[LOG] " + message + ANSI_RESET);
+        }
+    }
+
+    public static void info(String message) {
+        if (INFO) {
+            System.out.println(ANSI_GREEN + "[LOG] " + message + ANSI_RESET);
+        }
+    }
+
+    public static void debug(String message) {
+        if (DEBUG) {
+            System.out.println(ANSI_CYAN + "[DEBUG] " + message + ANSI_RESET);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of an ai, by name. Everything can be updated from every worker without locking, and the
+ * values are only formatted when the report is requested.
+ */
+public final class Metrics {
+    // Instance variables
+    // ------------------
+
+    // The counters by their name
+    private final Map<String, LongAdder> counters;
+    // The histograms by their name
+    private final Map<String, Histogram> histograms;
+
+    // Constructors
+    // ------------
+    public Metrics() {
+        counters = new ConcurrentHashMap<>();
+        histograms = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Add to a counter
+     *
+     * @param name  the name of the counter
+     * @param delta the amount to add
+     */
+    public void count(String name, long delta) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Record the duration of a phase in a histogram that is reported in milliseconds
+     *
+     * @param name  the name of the phase
+     * @param start the start of the phase, from {@link System#nanoTime()}
+     * @return the end of the phase, which can be used as the start of the next one
+     */
+    public long time(String name, long start) {
+        long end = System.nanoTime();
+        histograms.computeIfAbsent(name, key -> new Histogram("ms", 1000000)).record(end - start);
+        return end;
+    }
+
+    /**
+     * Record a value in a histogram
+     *
+     * @param name  the name of the histogram
+     * @param value the value to record
+     */
+    public void sample(String name, long value) {
+        histograms.computeIfAbsent(name, key -> new Histogram("", 1)).record(value);
+    }
+
+    public long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    public Histogram getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    public void reset() {
+        counters.clear();
+        histograms.clear();
+    }
+
+    /**
+     * Format every counter and histogram, sorted by name
+     *
+     * @return the report, one line per value
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        new TreeMap<>(counters).forEach((name, counter) -> report.append(name).append(": ").append(counter.sum()).append('\n'));
+        new TreeMap<>(histograms).forEach((name, histogram) -> report.append(name).append(": ").append(histogram).append('\n'));
+        return report.toString();
+    }
+}
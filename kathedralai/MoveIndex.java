@@ -0,0 +1,339 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import de.fhkiel.ki.cathedral.*;
+
+import java.util.Arrays;
+
+/**
+ * Index of the footprints that each player could place on the current board, kept up to date across turns and across
+ * the placements of a search instead of being rebuilt. Whether a footprint fits only depends on the cells it covers,
+ * thus after a placement only the footprints that cover a changed cell are checked again: the cells of the new
+ * building, the captured regions and the cells of the removed buildings. Whether the building of a footprint is still
+ * left to place is asked from the game when the index is read.
+ * <p>
+ * Every change can be taken back with {@link #unmake()}, so that a search can follow {@code takeTurn} and
+ * {@code undoLastTurn} of the game. An instance must not be changed by more than one thread, but can be read by many.
+ */
+public final class MoveIndex {
+    // The players that place buildings, the cathedral belongs to blue
+    private static final Color[] PLAYERS = {Color.Blue, Color.Black, Color.White};
+    // The colors, by their ordinal
+    private static final Color[] COLORS = Color.values();
+
+    // Instance variables
+    // ------------------
+
+    // The footprints of the buildings
+    private final FootprintTable footprints;
+    // The color of each cell of the indexed board
+    private final Color[] cells;
+    // The cells each player can build on, by the index of the player in PLAYERS
+    private final CellMask[] placable;
+    // The footprints that fit onto the board for each player, as a bit set over their dense indices
+    private final long[][] legal;
+    // The changes of the open frames: cell changes as -(cell * COLORS + old color) - 1, flips as index * 3 + player
+    private int[] journal;
+    private int journalSize;
+    // The start of each open frame in the journal
+    private int[] frames;
+    private int frameCount;
+    // If a board has been loaded
+    private boolean loaded;
+
+    // Constructors
+    // ------------
+    public MoveIndex(FootprintTable footprints) {
+        this.footprints = footprints;
+        this.cells = new Color[CellMask.CELLS];
+        this.placable = new CellMask[PLAYERS.length];
+        this.legal = new long[PLAYERS.length][(footprints.size() + 63) >>> 6];
+        for (int p = 0; p < PLAYERS.length; p++) {
+            placable[p] = new CellMask();
+        }
+        this.journal = new int[1024];
+        this.frames = new int[64];
+    }
+
+    /**
+     * Build the index for the board of a game from scratch, which drops every open frame
+     *
+     * @param game the game to take the board from
+     */
+    public void load(Game game) {
+        Color[][] field = game.getBoard().getField();
+        for (CellMask mask : placable) {
+            mask.clear();
+        }
+        for (int x = 0; x < CellMask.SIZE; x++) {
+            for (int y = 0; y < CellMask.SIZE; y++) {
+                int cell = CellMask.index(x, y);
+                cells[cell] = field[x][y];
+                for (int p = 0; p < PLAYERS.length; p++) {
+                    if (canBuild(PLAYERS[p], field[x][y])) {
+                        placable[p].set(cell);
+                    }
+                }
+            }
+        }
+        for (int p = 0; p < PLAYERS.length; p++) {
+            Arrays.fill(legal[p], 0L);
+            for (int i = 0; i < footprints.size(); i++) {
+                if (placable[p].containsAll(footprints.footprint(i).getForm())) {
+                    legal[p][i >>> 6] |= 1L << i;
+                }
+            }
+        }
+        journalSize = 0;
+        frameCount = 0;
+        loaded = true;
+    }
+
+    /**
+     * Bring the index to the board of a game, by checking only the footprints that cover a changed cell. This works
+     * for any change of the board, such as the turns of both players since the last turn of the ai. Frames that are
+     * still open, for example of a search that ran out of time, are dropped.
+     *
+     * @param game the game to take the board from
+     */
+    public void sync(Game game) {
+        journalSize = 0;
+        frameCount = 0;
+        update(game);
+    }
+
+    /**
+     * Apply the changed cells of the board of a game to the index
+     *
+     * @param game the game to take the board from
+     */
+    private void update(Game game) {
+        if (!loaded) {
+            load(game);
+            return;
+        }
+        Color[][] field = game.getBoard().getField();
+        for (int x = 0; x < CellMask.SIZE; x++) {
+            for (int y = 0; y < CellMask.SIZE; y++) {
+                int cell = CellMask.index(x, y);
+                if (cells[cell] != field[x][y]) {
+                    change(cell, field[x][y]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a frame and update the index to the board of a game, after a placement has been taken in it
+     *
+     * @param game the game after the placement
+     */
+    public void make(Game game) {
+        openFrame();
+        update(game);
+    }
+
+    /**
+     * Open a frame and update the index after a placement, from the cells of the new building alone if the placement
+     * changes no other cell. Only a placement that turns cells into a region of its player, which the capture delta
+     * tells, compares the whole board like {@link #make(Game)}.
+     *
+     * @param game        the game after the placement
+     * @param footprint   the footprint of the placement
+     * @param regionDelta the change of the amount of region cells of the player, from the capture evaluator of the
+     *                    board before the placement
+     * @return true, if only the cells of the new building have changed
+     */
+    public boolean make(Game game, FootprintTable.Footprint footprint, int regionDelta) {
+        openFrame();
+        Color color = footprint.getPlacement().building().getColor();
+        if (!loaded || color == Color.Blue) {
+            update(game);
+            return false;
+        }
+        // Building on an own region lowers the delta by the covered region cells, without capturing anything
+        CellMask form = footprint.getForm();
+        Color owned = color.subColor();
+        int covered = 0;
+        for (int cell = form.nextSetBit(0); cell >= 0; cell = form.nextSetBit(cell + 1)) {
+            if (cells[cell] == owned) {
+                covered++;
+            }
+        }
+        if (regionDelta + covered > 0) {
+            update(game);
+            return false;
+        }
+        for (int cell = form.nextSetBit(0); cell >= 0; cell = form.nextSetBit(cell + 1)) {
+            change(cell, color);
+        }
+        return true;
+    }
+
+    private void openFrame() {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        }
+        frames[frameCount++] = journalSize;
+    }
+
+    /**
+     * Take back every change since the last {@link #make(Game)}
+     */
+    public void unmake() {
+        int start = frames[--frameCount];
+        while (journalSize > start) {
+            int entry = journal[--journalSize];
+            if (entry < 0) {
+                int packed = -entry - 1;
+                setCell(packed / COLORS.length, COLORS[packed % COLORS.length]);
+            } else {
+                legal[entry % PLAYERS.length][entry / PLAYERS.length >>> 6] ^= 1L << (entry / PLAYERS.length);
+            }
+        }
+    }
+
+    /**
+     * Change the color of a cell, and check the footprints that cover it again
+     *
+     * @param cell  the index of the cell
+     * @param color the new color of the cell
+     */
+    private void change(int cell, Color color) {
+        record(-(cell * COLORS.length + cells[cell].ordinal()) - 1);
+        setCell(cell, color);
+        for (int index : footprints.covering(cell)) {
+            CellMask form = footprints.footprint(index).getForm();
+            for (int p = 0; p < PLAYERS.length; p++) {
+                boolean fits = placable[p].containsAll(form);
+                long bit = 1L << index;
+                if (fits != ((legal[p][index >>> 6] & bit) != 0)) {
+                    legal[p][index >>> 6] ^= bit;
+                    record(index * PLAYERS.length + p);
+                }
+            }
+        }
+    }
+
+    private void setCell(int cell, Color color) {
+        cells[cell] = color;
+        for (int p = 0; p < PLAYERS.length; p++) {
+            if (canBuild(PLAYERS[p], color)) {
+                placable[p].set(cell);
+            } else {
+                placable[p].clear(cell);
+            }
+        }
+    }
+
+    /**
+     * Write a change into the journal, if a frame is open
+     *
+     * @param entry the packed change
+     */
+    private void record(int entry) {
+        if (frameCount == 0) {
+            return;
+        }
+        if (journalSize == journal.length) {
+            journal = Arrays.copyOf(journal, journal.length * 2);
+        }
+        journal[journalSize++] = entry;
+    }
+
+    /**
+     * Check if a player may build on a cell of a given color, which are the free cells and the player's own regions
+     *
+     * @param player the player that builds
+     * @param color  the color of the cell
+     * @return true, if the player may build on the cell
+     */
+    private static boolean canBuild(Color player, Color color) {
+        return color == Color.None || (player != Color.Blue && color == player.subColor());
+    }
+
+    private static int player(Color player) {
+        return switch (player) {
+            case Blue -> 0;
+            case Black -> 1;
+            case White -> 2;
+            default -> throw new IllegalArgumentException("No player: " + player);
+        };
+    }
+
+    // Queries
+    // -------
+
+    /**
+     * Get the color of a cell of the indexed board
+     *
+     * @param cell the index of the cell
+     * @return the color of the cell
+     */
+    public Color color(int cell) {
+        return cells[cell];
+    }
+
+    /**
+     * Check if a footprint fits onto the indexed board for a player, regardless of the buildings the player has left
+     *
+     * @param footprint the footprint to check
+     * @param player    the player that places the building
+     * @return true, if every covered cell is free or a region of the player
+     */
+    public boolean fits(FootprintTable.Footprint footprint, Color player) {
+        int index = footprint.getIndex();
+        return (legal[player(player)][index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Get the next canonical footprint of a building that fits onto the indexed board for a player. The footprints
+     * that cover the same fields as a canonical one are skipped. Iterate with
+     * {@code for (int i = index.next(b, p, index.start(b)); i >= 0; i = index.next(b, p, i + 1))}.
+     *
+     * @param building the building to place
+     * @param player   the player that places the building
+     * @param from     the dense index to start at
+     * @return the dense index of the next fitting footprint, or -1 if there is none
+     */
+    public int next(Building building, Color player, int from) {
+        long[] bits = legal[player(player)];
+        int end = footprints.canonicalEnd(building);
+        if (from >= end) {
+            return -1;
+        }
+        int word = from >>> 6;
+        long current = bits[word] & (-1L << from);
+        while (true) {
+            if (current != 0) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(current);
+                return index < end ? index : -1;
+            }
+            if (++word << 6 >= end) {
+                return -1;
+            }
+            current = bits[word];
+        }
+    }
+
+    public int start(Building building) {
+        return footprints.start(building);
+    }
+
+    /**
+     * Count the footprints that fit onto the indexed board for a player, over all buildings of the table
+     *
+     * @param player the player that places the buildings
+     * @return the amount of fitting footprints
+     */
+    public int count(Color player) {
+        int count = 0;
+        for (long word : legal[player(player)]) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public FootprintTable getFootprints() {
+        return footprints;
+    }
+}
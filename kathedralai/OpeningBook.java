@@ -0,0 +1,186 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import de.fhkiel.ki.cathedral.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Book of the best placements for the first boards of a game. The book is a binary file of entries sorted by the hash
+ * of the board, each holding the packed code of the placement to take. The file is memory mapped, thus looking up a
+ * board is a binary search on the mapped pages and the book is never loaded onto the heap.
+ * <p>
+ * The boards are keyed on their canonical image under the symmetries of the board, and the placements are stored in
+ * the coordinates of that image, thus a board that is only mirrored or rotated finds the entry of its image.
+ * <p>
+ * Layout: the magic number, the version and the amount of entries as ints, followed by the entries as a long hash
+ * and an int placement code, all big endian.
+ */
+public final class OpeningBook {
+    // The system property that overrides the path of the book
+    public static final String PATH_PROPERTY = "kathedral.book";
+    // The path of the book, if the property is not set
+    public static final String DEFAULT_PATH = "opening-book.bin";
+
+    // Layout of the file
+    private static final int MAGIC = 0x4B424F4B;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    private static final int ENTRY_BYTES = Long.BYTES + Integer.BYTES;
+
+    // Instance variables
+    // ------------------
+
+    // The footprints of the buildings, to decode the placements
+    private final FootprintTable footprints;
+    // Hashing of the boards
+    private final Zobrist zobrist;
+    // The symmetries of the board, to find the canonical image
+    private final Symmetry symmetry;
+    // The mapped entries, or null if there is no book
+    private final ByteBuffer entries;
+    // The amount of entries in the book
+    private final int size;
+
+    private OpeningBook(FootprintTable footprints, Zobrist zobrist, ByteBuffer entries, int size) {
+        this.footprints = footprints;
+        this.zobrist = zobrist;
+        this.symmetry = new Symmetry(footprints);
+        this.entries = entries;
+        this.size = size;
+    }
+
+    /**
+     * Open the book at the path of the system property, or at the default path
+     *
+     * @param footprints the footprints of the buildings
+     * @param zobrist    the hashing of the boards
+     * @return the book, which is empty if there is no valid file
+     */
+    public static OpeningBook open(FootprintTable footprints, Zobrist zobrist) {
+        return open(Path.of(System.getProperty(PATH_PROPERTY, DEFAULT_PATH)), footprints, zobrist);
+    }
+
+    /**
+     * Map the book of a file into memory
+     *
+     * @param path       the path of the book
+     * @param footprints the footprints of the buildings
+     * @param zobrist    the hashing of the boards
+     * @return the book, which is empty if there is no valid file
+     */
+    public static OpeningBook open(Path path, FootprintTable footprints, Zobrist zobrist) {
+        if (!Files.isRegularFile(path)) {
+            return new OpeningBook(footprints, zobrist, null, 0);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION) {
+                Log.error(path + " is not an opening book of version " + VERSION);
+                return new OpeningBook(footprints, zobrist, null, 0);
+            }
+            int size = buffer.getInt(2 * Integer.BYTES);
+            if (buffer.capacity() < HEADER_BYTES + (long) size * ENTRY_BYTES) {
+                Log.error("The opening book " + path + " is truncated");
+                return new OpeningBook(footprints, zobrist, null, 0);
+            }
+            return new OpeningBook(footprints, zobrist, buffer, size);
+        } catch (IOException e) {
+            Log.error("The opening book " + path + " can not be read: " + e.getMessage());
+            return new OpeningBook(footprints, zobrist, null, 0);
+        }
+    }
+
+    /**
+     * Write a book to a file
+     *
+     * @param path  the path of the book
+     * @param moves the packed code of the placement to take in the canonical image, by the canonical hash of the board
+     * @throws IOException if the file can not be written
+     */
+    public static void write(Path path, Map<Long, Integer> moves) throws IOException {
+        // The entries are searched with the signed order of the hashes
+        TreeMap<Long, Integer> sorted = new TreeMap<>(moves);
+        try (OutputStream file = Files.newOutputStream(path);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            for (Map.Entry<Long, Integer> entry : sorted.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Look up the placement for the board of a game
+     *
+     * @param game the game to look up
+     * @return the placement of the book, or null if the board is not in the book or the placement is not possible
+     */
+    public Placement lookup(Game game) {
+        if (size == 0) {
+            return null;
+        }
+        int transform = symmetry.canonical(game);
+        int code = find(zobrist.canonicalHash(game, symmetry, transform));
+        if (code < 0) {
+            return null;
+        }
+        FootprintTable.Footprint footprint = footprints.get(code);
+        // A book of a different version of the buildings must not lead to an invalid placement
+        if (footprint == null || !game.getPlacableBuildings().contains(footprint.getPlacement().building())) {
+            return null;
+        }
+        // Take the placement back from the canonical image to the board of the game
+        FootprintTable.Footprint image = symmetry.transform(Symmetry.inverse(transform), footprint);
+        if (image == null) {
+            return null;
+        }
+        // A colliding hash or a stale book can point at a placement that the rules do not allow on this board
+        if (!game.copy().takeTurn(image.getPlacement())) {
+            Log.warn("The opening book holds a placement that is not possible: " + image.getPlacement());
+            return null;
+        }
+        return image.getPlacement();
+    }
+
+    /**
+     * Binary search the entries for a hash
+     *
+     * @param hash the hash of the board
+     * @return the packed code of the placement, or -1 if the hash is not in the book
+     */
+    private int find(long hash) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = HEADER_BYTES + middle * ENTRY_BYTES;
+            long key = entries.getLong(offset);
+            if (key < hash) {
+                low = middle + 1;
+            } else if (key > hash) {
+                high = middle - 1;
+            } else {
+                return entries.getInt(offset + Long.BYTES);
+            }
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+}
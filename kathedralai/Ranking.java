@@ -0,0 +1,148 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+/**
+ * Selection of the best candidates by a primitive key, calculated once for every candidate. Only the best k
+ * candidates are ordered, with a bounded heap, instead of sorting all of them.
+ */
+public final class Ranking {
+    /**
+     * How the scores of the replies to a placement are combined into a single value
+     */
+    public enum Aggregation {
+        MAX,
+        AVERAGE,
+        MIN;
+
+        /**
+         * Combine the first values of an array
+         *
+         * @param values the values to combine
+         * @param count  the amount of values to take from the start of the array
+         * @return the combined value, or 0 if there are no values
+         */
+        public double aggregate(double[] values, int count) {
+            if (count == 0) {
+                return 0.0;
+            }
+            double result = values[0];
+            for (int i = 1; i < count; i++) {
+                switch (this) {
+                    case MAX -> result = Math.max(result, values[i]);
+                    case MIN -> result = Math.min(result, values[i]);
+                    case AVERAGE -> result += values[i];
+                }
+            }
+            return this == AVERAGE ? result / count : result;
+        }
+    }
+
+    private Ranking() {
+    }
+
+    /**
+     * Select the candidates with the largest keys. A min-heap of at most k candidates keeps the best ones seen so
+     * far, thus the selection takes O(n log k) instead of sorting all n candidates.
+     *
+     * @param keys the key of each candidate
+     * @param k    the amount of candidates to select
+     * @return the indices of the selected candidates, largest key first. Equal keys keep the order of their indices.
+     */
+    public static int[] top(double[] keys, int k) {
+        return top(keys, keys.length, k);
+    }
+
+    /**
+     * Select the candidates with the largest keys among the first keys of an array, which can be a reused buffer
+     *
+     * @param keys  the key of each candidate
+     * @param count the amount of candidates, taken from the start of the array
+     * @param k     the amount of candidates to select
+     * @return the indices of the selected candidates, largest key first. Equal keys keep the order of their indices.
+     */
+    public static int[] top(double[] keys, int count, int k) {
+        int[] heap = new int[Math.max(0, Math.min(k, count))];
+        top(keys, count, k, heap);
+        return heap;
+    }
+
+    /**
+     * Select the candidates with the largest keys among the first keys of an array into a reused array, so that a
+     * search that selects on every board does not allocate
+     *
+     * @param keys  the key of each candidate
+     * @param count the amount of candidates, taken from the start of the array
+     * @param k     the amount of candidates to select
+     * @param heap  the array to write the indices of the selected candidates to, largest key first, with room for at
+     *              least the smaller of k and count
+     * @return the amount of selected candidates
+     */
+    public static int top(double[] keys, int count, int k, int[] heap) {
+        int size = Math.min(k, count);
+        if (size <= 0) {
+            return 0;
+        }
+        int filled = 0;
+        for (int i = 0; i < count; i++) {
+            if (filled < size) {
+                heap[filled] = i;
+                siftUp(heap, keys, filled++);
+            } else if (worse(keys, heap[0], i)) {
+                heap[0] = i;
+                siftDown(heap, keys, 0, size);
+            }
+        }
+        // Take the worst candidate off the heap until it is empty, which fills the result from the back
+        for (int end = size - 1; end > 0; end--) {
+            int worst = heap[0];
+            heap[0] = heap[end];
+            heap[end] = worst;
+            siftDown(heap, keys, 0, end);
+        }
+        return size;
+    }
+
+    /**
+     * Check if a candidate ranks below another one
+     *
+     * @param keys   the keys of the candidates
+     * @param first  the index of the first candidate
+     * @param second the index of the second candidate
+     * @return true, if the first candidate has the smaller key, or the same key and the larger index
+     */
+    private static boolean worse(double[] keys, int first, int second) {
+        int comparison = Double.compare(keys[first], keys[second]);
+        return comparison < 0 || (comparison == 0 && first > second);
+    }
+
+    private static void siftUp(int[] heap, double[] keys, int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!worse(keys, heap[position], heap[parent])) {
+                return;
+            }
+            int swap = heap[parent];
+            heap[parent] = heap[position];
+            heap[position] = swap;
+            position = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, double[] keys, int position, int size) {
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && worse(keys, heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!worse(keys, heap[child], heap[position])) {
+                return;
+            }
+            int swap = heap[child];
+            heap[child] = heap[position];
+            heap[position] = swap;
+            position = child;
+        }
+    }
+}
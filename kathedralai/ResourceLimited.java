@@ -0,0 +1,30 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+/**
+ * An ai whose threads and table memory can be limited from the outside, so that the ais of many games that run at
+ * once share the processors and the memory of the machine instead of each taking all of it
+ */
+public interface ResourceLimited {
+    /**
+     * Limit the threads and the memory of the tables of the ai, from the next game on
+     *
+     * @param threads   the amount of threads the ai searches with at most, at least 1
+     * @param megabytes the memory budget of all tables of the ai in megabytes, at least 1
+     */
+    void limitResources(int threads, int megabytes);
+
+    /**
+     * Check the limits of {@link #limitResources(int, int)}
+     *
+     * @param threads   the amount of threads
+     * @param megabytes the memory budget in megabytes
+     */
+    static void checkLimits(int threads, int megabytes) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed, but there were " + threads);
+        }
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("The tables need at least 1 MB, but got " + megabytes);
+        }
+    }
+}
@@ -0,0 +1,571 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import de.fhkiel.ki.cathedral.*;
+
+import java.util.Arrays;
+
+/**
+ * Compact mutable state of a game for a search: the masks of the board, the buildings each player has left, the
+ * score and the player to move. A placement is made and taken back on the state itself, and only the cells and
+ * buildings it changes are written to a journal, so that a search never has to copy a {@link Game}. The regions are
+ * captured in the same way as by the {@link CaptureEvaluator}.
+ * <p>
+ * The state plays the rules of the game on its own: the legality of a placement, the capture of closed areas with the
+ * single building inside them, which is returned to its owner, and the scores. The DifferentialCheckTest compares it
+ * with the game after every placement of random games.
+ * <p>
+ * A worker keeps one state and resets it from the state of the root board, which is only read by the workers. An
+ * instance must not be shared between threads.
+ */
+public final class SearchState {
+    // The colors, by their ordinal
+    private static final Color[] COLORS = Color.values();
+    // Direction offsets for the four neighbours of a cell
+    private static final int[] DX = {1, -1, 0, 0};
+    private static final int[] DY = {0, 0, 1, -1};
+    // The kinds of the journal entries, in the bits above the payload
+    private static final int CELL = 0;
+    private static final int REMOVED = 1 << 24;
+    private static final int PAYLOAD = REMOVED - 1;
+
+    // Instance variables
+    // ------------------
+
+    // The footprints of the buildings
+    private final FootprintTable footprints;
+    // The cells of each color, indexed by the ordinal of the color
+    private final CellMask[] masks;
+    // The ordinal of the color of each cell
+    private final byte[] cells;
+    // For each cell, the slot of the placed building on it, or -1
+    private final int[] pieceAt;
+    // The dense index of the footprint of the building in each slot, or -(index + 1) if it has been captured
+    private int[] pieces;
+    private int pieceCount;
+    // The copies of each building a player has left, indexed by [color ordinal][building id]
+    private final int[][] inventory;
+    // The score of each player, which is the sum of the scores of its buildings that are left
+    private final int[] scores;
+    // The amount of placed buildings of each color
+    private final int[] placed;
+    // The player to move
+    private Color player;
+
+    // The changes of the open frames
+    private int[] journal;
+    private int journalSize;
+    // The start of each open frame in the journal, and the player that moved in it
+    private int[] frames;
+    private Color[] movers;
+    // The amount of slots at the start of each open frame
+    private int[] pieceSlots;
+    private int frameCount;
+    // The state this state has last been reset to
+    private SearchState root;
+
+    // Scratch buffers for the flood fill
+    private final int[] queue;
+    private final CellMask walls;
+    private final CellMask visited;
+    private final CellMask region;
+
+    // Constructors
+    // ------------
+    public SearchState(FootprintTable footprints) {
+        this.footprints = footprints;
+        this.masks = new CellMask[COLORS.length];
+        for (int i = 0; i < masks.length; i++) {
+            masks[i] = new CellMask();
+        }
+        this.cells = new byte[CellMask.CELLS];
+        this.pieceAt = new int[CellMask.CELLS];
+        this.pieces = new int[32];
+        this.inventory = new int[COLORS.length][footprints.getBuildings().size()];
+        this.scores = new int[COLORS.length];
+        this.placed = new int[COLORS.length];
+        this.journal = new int[256];
+        this.frames = new int[64];
+        this.movers = new Color[64];
+        this.pieceSlots = new int[64];
+        this.queue = new int[CellMask.CELLS];
+        this.walls = new CellMask();
+        this.visited = new CellMask();
+        this.region = new CellMask();
+    }
+
+    /**
+     * Load the board, the buildings that are left and the player to move of a game, which drops every open frame
+     *
+     * @param game the game to load
+     */
+    public void reset(Game game) {
+        for (CellMask mask : masks) {
+            mask.clear();
+        }
+        Color[][] field = game.getBoard().getField();
+        for (int x = 0; x < CellMask.SIZE; x++) {
+            for (int y = 0; y < CellMask.SIZE; y++) {
+                int cell = CellMask.index(x, y);
+                cells[cell] = (byte) field[x][y].ordinal();
+                masks[cells[cell]].set(cell);
+            }
+        }
+        Arrays.fill(pieceAt, -1);
+        Arrays.fill(placed, 0);
+        pieceCount = 0;
+        for (Placement placement : game.getBoard().getPlacedBuildings()) {
+            FootprintTable.Footprint footprint = footprints.get(placement);
+            addPiece(footprint.getIndex());
+            placed[placement.building().getColor().ordinal()]++;
+        }
+        Arrays.fill(scores, 0);
+        for (Color color : new Color[]{Color.Blue, Color.Black, Color.White}) {
+            Arrays.fill(inventory[color.ordinal()], 0);
+            for (Building building : game.getPlacableBuildings(color)) {
+                inventory[color.ordinal()][footprints.id(building)]++;
+                scores[color.ordinal()] += building.score();
+            }
+        }
+        // The cathedral does not count for any player
+        scores[Color.Blue.ordinal()] = 0;
+        player = game.getCurrentPlayer();
+        journalSize = 0;
+        frameCount = 0;
+        root = null;
+    }
+
+    /**
+     * Copy another state, unless this state already holds it with no open frames. The other state is only read.
+     *
+     * @param root the state of the root board
+     */
+    public void reset(SearchState root) {
+        if (this.root == root && frameCount == 0) {
+            return;
+        }
+        for (int i = 0; i < masks.length; i++) {
+            masks[i].copyFrom(root.masks[i]);
+        }
+        System.arraycopy(root.cells, 0, cells, 0, cells.length);
+        System.arraycopy(root.pieceAt, 0, pieceAt, 0, pieceAt.length);
+        if (pieces.length < root.pieces.length) {
+            pieces = new int[root.pieces.length];
+        }
+        System.arraycopy(root.pieces, 0, pieces, 0, root.pieceCount);
+        pieceCount = root.pieceCount;
+        for (int i = 0; i < inventory.length; i++) {
+            System.arraycopy(root.inventory[i], 0, inventory[i], 0, inventory[i].length);
+        }
+        System.arraycopy(root.scores, 0, scores, 0, scores.length);
+        System.arraycopy(root.placed, 0, placed, 0, placed.length);
+        player = root.player;
+        journalSize = 0;
+        frameCount = 0;
+        this.root = root;
+    }
+
+    // Make & unmake
+    // -------------
+
+    /**
+     * Check if the player to move can take a placement: the building is left, and every covered cell is free or a
+     * region of the player
+     *
+     * @param footprint the footprint of the placement
+     * @return true, if the placement is legal
+     */
+    public boolean canMake(FootprintTable.Footprint footprint) {
+        Building building = footprint.getPlacement().building();
+        return building.getColor().equals(player)
+                && inventory[player.ordinal()][footprints.id(building)] > 0
+                && fits(footprint, player);
+    }
+
+    /**
+     * Check if a footprint fits onto the board for a player, regardless of the buildings the player has left
+     *
+     * @param footprint the footprint to check
+     * @param player    the player that places the building
+     * @return true, if every covered cell is free or a region of the player
+     */
+    public boolean fits(FootprintTable.Footprint footprint, Color player) {
+        walls.copyFrom(masks[Color.None.ordinal()]);
+        if (!player.equals(Color.Blue)) {
+            walls.or(masks[player.subColor().ordinal()]);
+        }
+        return walls.containsAll(footprint.getForm());
+    }
+
+    /**
+     * Take a placement for the player to move, capture the regions it closes and pass the turn to the opponent
+     *
+     * @param footprint the footprint of the placement
+     * @return false, if the placement is not legal and the state is unchanged
+     */
+    public boolean make(FootprintTable.Footprint footprint) {
+        if (!canMake(footprint)) {
+            return false;
+        }
+        openFrame();
+        Color color = player;
+        Building building = footprint.getPlacement().building();
+        int buildings = placed[color.ordinal()];
+        CellMask form = footprint.getForm();
+        int slot = pieceCount;
+        for (int cell = form.nextSetBit(0); cell >= 0; cell = form.nextSetBit(cell + 1)) {
+            setCell(cell, color);
+        }
+        addPiece(footprint.getIndex());
+        inventory[color.ordinal()][footprints.id(building)]--;
+        placed[color.ordinal()]++;
+        if (!color.equals(Color.Blue)) {
+            scores[color.ordinal()] -= building.score();
+            capture(color, form, buildings, slot);
+        }
+        player = next(color);
+        return true;
+    }
+
+    /**
+     * Pass the turn to the opponent without a placement
+     */
+    public void pass() {
+        openFrame();
+        player = next(player);
+    }
+
+    /**
+     * Take back the last {@link #make} or {@link #pass()}
+     */
+    public void unmake() {
+        int start = frames[--frameCount];
+        Color mover = movers[frameCount];
+        while (journalSize > start) {
+            int entry = journal[--journalSize];
+            int payload = entry & PAYLOAD;
+            if ((entry & ~PAYLOAD) == REMOVED) {
+                restorePiece(payload);
+            } else {
+                int cell = payload / COLORS.length;
+                Color old = COLORS[payload % COLORS.length];
+                masks[cells[cell]].clear(cell);
+                cells[cell] = (byte) old.ordinal();
+                masks[old.ordinal()].set(cell);
+            }
+        }
+        // The building of the frame is the last one, as captured buildings keep their slots
+        if (placedIn(frameCount)) {
+            int slot = --pieceCount;
+            FootprintTable.Footprint footprint = footprints.footprint(pieces[slot]);
+            CellMask form = footprint.getForm();
+            for (int cell = form.nextSetBit(0); cell >= 0; cell = form.nextSetBit(cell + 1)) {
+                pieceAt[cell] = -1;
+            }
+            Building building = footprint.getPlacement().building();
+            inventory[mover.ordinal()][footprints.id(building)]++;
+            placed[mover.ordinal()]--;
+            if (!mover.equals(Color.Blue)) {
+                scores[mover.ordinal()] += building.score();
+            }
+        }
+        player = mover;
+    }
+
+    /**
+     * Get the change of the Zobrist hash of the board by the last {@link #make} or {@link #pass()}, from the changes
+     * that have been written into the journal: the key of the new building and of every captured building, the keys
+     * of the region cells that changed, and the keys of the player that moved and of the player to move
+     *
+     * @param zobrist the hashing of the boards
+     * @return the hash of the board before the last frame xor the hash of the board now
+     */
+    public long hashChange(Zobrist zobrist) {
+        if (frameCount == 0) {
+            throw new IllegalStateException("There is no placement to take the change of the hash from");
+        }
+        int frame = frameCount - 1;
+        long change = zobrist.playerKey(movers[frame]) ^ zobrist.playerKey(player);
+        for (int i = frames[frame]; i < journalSize; i++) {
+            int entry = journal[i];
+            int payload = entry & PAYLOAD;
+            if ((entry & ~PAYLOAD) == REMOVED) {
+                change ^= zobrist.placementKey(footprints.footprint(-pieces[payload] - 1).getCanonical().getCode());
+            } else {
+                // Every cell is changed at most once by a frame, thus the journal holds its color before the frame
+                int cell = payload / COLORS.length;
+                change ^= regionKey(zobrist, COLORS[payload % COLORS.length], cell)
+                        ^ regionKey(zobrist, COLORS[cells[cell]], cell);
+            }
+        }
+        if (placedIn(frame)) {
+            change ^= zobrist.placementKey(footprints.footprint(pieces[pieceCount - 1]).getCanonical().getCode());
+        }
+        return change;
+    }
+
+    /**
+     * Get the key of a cell, which is only part of the hash if the cell is a region
+     *
+     * @param zobrist the hashing of the boards
+     * @param color   the color of the cell
+     * @param cell    the index of the cell
+     * @return the key of the region cell, or 0 if the cell is not a region
+     */
+    private static long regionKey(Zobrist zobrist, Color color, int cell) {
+        if (color.equals(Color.White.subColor()) || color.equals(Color.Black.subColor())) {
+            return zobrist.regionKey(color, cell);
+        }
+        return 0L;
+    }
+
+    private void openFrame() {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+            movers = Arrays.copyOf(movers, movers.length * 2);
+            pieceSlots = Arrays.copyOf(pieceSlots, pieceSlots.length * 2);
+        }
+        frames[frameCount] = journalSize;
+        movers[frameCount] = player;
+        pieceSlots[frameCount] = pieceCount;
+        frameCount++;
+    }
+
+    private boolean placedIn(int frame) {
+        return pieceCount > pieceSlots[frame];
+    }
+
+    /**
+     * Capture the areas that the new building closes, in the same way as {@link CaptureEvaluator#evaluate}
+     *
+     * @param color     the player that placed the building
+     * @param form      the cells of the new building
+     * @param buildings the amount of buildings the player had placed before
+     * @param slot      the slot of the new building
+     */
+    private void capture(Color color, CellMask form, int buildings, int slot) {
+        // No regions can be captured with the first building of a player
+        if (buildings == 0) {
+            return;
+        }
+        visited.copyFrom(masks[color.ordinal()]);
+        // With the second building, areas that have been closed by the first building are captured as well
+        if (buildings == 1) {
+            for (int cell = 0; cell < CellMask.CELLS; cell++) {
+                if (!visited.get(cell)) {
+                    fillRegion(cell, color);
+                }
+            }
+            return;
+        }
+        // Flood fill every area that touches the new building
+        for (int cell = form.nextSetBit(0); cell >= 0; cell = form.nextSetBit(cell + 1)) {
+            int x = cell / CellMask.SIZE;
+            int y = cell % CellMask.SIZE;
+            for (int d = 0; d < DX.length; d++) {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                if (CellMask.onBoard(nx, ny) && !visited.get(nx, ny)) {
+                    fillRegion(CellMask.index(nx, ny), color);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flood fill the area that contains a given cell, and capture it if it contains at most one building, which is
+     * then returned to its owner
+     *
+     * @param start the cell to start at
+     * @param color the player that captures
+     */
+    private void fillRegion(int start, Color color) {
+        region.clear();
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        visited.set(start);
+        int piece = -1;
+        boolean tooManyPieces = false;
+        while (head < tail) {
+            int cell = queue[head++];
+            region.set(cell);
+            int found = pieceAt[cell];
+            if (found >= 0 && found != piece) {
+                tooManyPieces |= piece >= 0;
+                piece = found;
+            }
+            int x = cell / CellMask.SIZE;
+            int y = cell % CellMask.SIZE;
+            for (int d = 0; d < DX.length; d++) {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                if (CellMask.onBoard(nx, ny) && !visited.get(nx, ny)) {
+                    int next = CellMask.index(nx, ny);
+                    visited.set(next);
+                    queue[tail++] = next;
+                }
+            }
+        }
+        if (tooManyPieces) {
+            return;
+        }
+        if (piece >= 0) {
+            removePiece(piece);
+        }
+        Color owned = color.subColor();
+        for (int cell = region.nextSetBit(0); cell >= 0; cell = region.nextSetBit(cell + 1)) {
+            if (cells[cell] != owned.ordinal()) {
+                setCell(cell, owned);
+            }
+        }
+    }
+
+    private void setCell(int cell, Color color) {
+        record(CELL | (cell * COLORS.length + cells[cell]));
+        masks[cells[cell]].clear(cell);
+        cells[cell] = (byte) color.ordinal();
+        masks[color.ordinal()].set(cell);
+    }
+
+    private void addPiece(int index) {
+        if (pieceCount == pieces.length) {
+            pieces = Arrays.copyOf(pieces, pieces.length * 2);
+        }
+        int slot = pieceCount++;
+        pieces[slot] = index;
+        CellMask form = footprints.footprint(index).getForm();
+        for (int cell = form.nextSetBit(0); cell >= 0; cell = form.nextSetBit(cell + 1)) {
+            pieceAt[cell] = slot;
+        }
+    }
+
+    /**
+     * Take a captured building off the board and return it to its owner. The slot is kept, so that the building
+     * can be put back by {@link #unmake()}.
+     *
+     * @param slot the slot of the building
+     */
+    private void removePiece(int slot) {
+        record(REMOVED | slot);
+        Building building = footprints.footprint(pieces[slot]).getPlacement().building();
+        CellMask form = footprints.footprint(pieces[slot]).getForm();
+        for (int cell = form.nextSetBit(0); cell >= 0; cell = form.nextSetBit(cell + 1)) {
+            pieceAt[cell] = -1;
+        }
+        Color owner = building.getColor();
+        inventory[owner.ordinal()][footprints.id(building)]++;
+        placed[owner.ordinal()]--;
+        if (!owner.equals(Color.Blue)) {
+            scores[owner.ordinal()] += building.score();
+        }
+        pieces[slot] = -pieces[slot] - 1;
+    }
+
+    private void restorePiece(int slot) {
+        pieces[slot] = -pieces[slot] - 1;
+        Building building = footprints.footprint(pieces[slot]).getPlacement().building();
+        CellMask form = footprints.footprint(pieces[slot]).getForm();
+        for (int cell = form.nextSetBit(0); cell >= 0; cell = form.nextSetBit(cell + 1)) {
+            pieceAt[cell] = slot;
+        }
+        Color owner = building.getColor();
+        inventory[owner.ordinal()][footprints.id(building)]--;
+        placed[owner.ordinal()]++;
+        if (!owner.equals(Color.Blue)) {
+            scores[owner.ordinal()] -= building.score();
+        }
+    }
+
+    /**
+     * Write a change into the journal, if a frame is open
+     *
+     * @param entry the packed change
+     */
+    private void record(int entry) {
+        if (frameCount == 0) {
+            return;
+        }
+        if (journalSize == journal.length) {
+            journal = Arrays.copyOf(journal, journal.length * 2);
+        }
+        journal[journalSize++] = entry;
+    }
+
+    /**
+     * Get the player that moves after a player, in the same way as {@code forfeitTurn} of the game
+     *
+     * @param player the player that moved
+     * @return the next player
+     */
+    private static Color next(Color player) {
+        return player.equals(Color.White) ? Color.Black : Color.White;
+    }
+
+    // Queries
+    // -------
+
+    /**
+     * Get the cells that surround the placed buildings of a player, without the cells of the buildings themselves
+     *
+     * @param player the player to get the hull for
+     * @param target the mask to write the result into
+     * @return the target mask
+     */
+    public CellMask hull(Color player, CellMask target) {
+        target.clear();
+        CellMask turn = masks[player.ordinal()];
+        for (int slot = 0; slot < pieceCount; slot++) {
+            if (pieces[slot] >= 0) {
+                FootprintTable.Footprint footprint = footprints.footprint(pieces[slot]);
+                if (footprint.getPlacement().building().getColor().equals(player)) {
+                    target.or(footprint.getHull());
+                }
+            }
+        }
+        target.andNot(turn);
+        return target;
+    }
+
+    /**
+     * Get the buildings a player has left to place
+     *
+     * @param player the player
+     * @param id     the id of the building in the footprint table
+     * @return the amount of copies of the building that are left
+     */
+    public int left(Color player, int id) {
+        return inventory[player.ordinal()][id];
+    }
+
+    public int getScore(Color player) {
+        return scores[player.ordinal()];
+    }
+
+    public Color getCurrentPlayer() {
+        return player;
+    }
+
+    /**
+     * Get the color of a cell
+     *
+     * @param cell the index of the cell
+     * @return the color of the cell
+     */
+    public Color getColor(int cell) {
+        return COLORS[cells[cell]];
+    }
+
+    /**
+     * Get the cells of a color
+     *
+     * @param color the color
+     * @return the live mask of the color, do not modify it
+     */
+    public CellMask mask(Color color) {
+        return masks[color.ordinal()];
+    }
+
+    public FootprintTable getFootprints() {
+        return footprints;
+    }
+}
@@ -0,0 +1,205 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import de.fhkiel.ki.cathedral.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The eight symmetries of the square board: the rotations by 0, 90, 180 and 270 degrees, the two mirrors along the
+ * axes and the two mirrors along the diagonals. Boards that are images of each other under a symmetry are
+ * strategically the same, thus a cache that is keyed on the canonical image of a board finds every image of a board
+ * it has seen. The canonical image is the lexicographically smallest one, and the transform that leads to it also
+ * maps the placements between the board and its canonical image.
+ * <p>
+ * A symmetry only applies to a board if every placed building can be turned into its image, which is not the case for
+ * the mirror images of a chiral building. An instance keeps scratch buffers and must not be shared between threads.
+ */
+public final class Symmetry {
+    // The amount of symmetries of the board
+    public static final int TRANSFORMS = 8;
+    // The transform that changes nothing
+    public static final int IDENTITY = 0;
+    // The transform that takes back each transform
+    private static final int[] INVERSE = {0, 3, 2, 1, 4, 5, 6, 7};
+    // The code of a cell that is covered by a building starts here, the codes below are the colors of the cell
+    private static final int BUILDING_CODES = 16;
+
+    // Instance variables
+    // ------------------
+
+    // The footprints of the buildings
+    private final FootprintTable footprints;
+    // The image of each cell, by the transform
+    private final int[][] cells;
+    // The dense index of the canonical footprint of the image of each footprint, or -1, by the transform
+    private final int[][] images;
+    // The code of each cell of the board that is made canonical
+    private final int[] codes;
+
+    // Constructors
+    // ------------
+    public Symmetry(FootprintTable footprints) {
+        this.footprints = footprints;
+        this.cells = new int[TRANSFORMS][CellMask.CELLS];
+        for (int t = 0; t < TRANSFORMS; t++) {
+            for (int x = 0; x < CellMask.SIZE; x++) {
+                for (int y = 0; y < CellMask.SIZE; y++) {
+                    cells[t][CellMask.index(x, y)] = transform(t, x, y);
+                }
+            }
+        }
+        this.images = new int[TRANSFORMS][footprints.size()];
+        for (Building building : footprints.getBuildings()) {
+            // The canonical footprint of the building for each set of covered cells
+            Map<CellMask, FootprintTable.Footprint> byForm = new HashMap<>();
+            for (FootprintTable.Footprint footprint : footprints.canonicalFootprints(building)) {
+                byForm.put(footprint.getForm(), footprint);
+            }
+            for (FootprintTable.Footprint footprint : footprints.footprints(building)) {
+                for (int t = 0; t < TRANSFORMS; t++) {
+                    FootprintTable.Footprint image = byForm.get(transform(t, footprint.getForm()));
+                    images[t][footprint.getIndex()] = image != null ? image.getIndex() : -1;
+                }
+            }
+        }
+        this.codes = new int[CellMask.CELLS];
+    }
+
+    /**
+     * Get the image of a cell under a transform
+     *
+     * @param transform the transform
+     * @param x         the x coordinate of the cell
+     * @param y         the y coordinate of the cell
+     * @return the index of the image of the cell
+     */
+    private static int transform(int transform, int x, int y) {
+        int last = CellMask.SIZE - 1;
+        return switch (transform) {
+            case 0 -> CellMask.index(x, y);
+            case 1 -> CellMask.index(y, last - x);
+            case 2 -> CellMask.index(last - x, last - y);
+            case 3 -> CellMask.index(last - y, x);
+            case 4 -> CellMask.index(last - x, y);
+            case 5 -> CellMask.index(x, last - y);
+            case 6 -> CellMask.index(y, x);
+            case 7 -> CellMask.index(last - y, last - x);
+            default -> throw new IllegalArgumentException("No transform: " + transform);
+        };
+    }
+
+    private CellMask transform(int transform, CellMask mask) {
+        CellMask image = new CellMask();
+        for (int cell = mask.nextSetBit(0); cell >= 0; cell = mask.nextSetBit(cell + 1)) {
+            image.set(cells[transform][cell]);
+        }
+        return image;
+    }
+
+    /**
+     * Get the transform that takes back a transform
+     *
+     * @param transform the transform
+     * @return the inverse transform
+     */
+    public static int inverse(int transform) {
+        return INVERSE[transform];
+    }
+
+    /**
+     * Get the image of a cell under a transform
+     *
+     * @param transform the transform
+     * @param cell      the index of the cell
+     * @return the index of the image of the cell
+     */
+    public int transformCell(int transform, int cell) {
+        return cells[transform][cell];
+    }
+
+    /**
+     * Get the image of a footprint under a transform
+     *
+     * @param transform the transform
+     * @param footprint the footprint to transform
+     * @return the canonical footprint of the same building that covers the image of the cells, or null if the
+     * building can not be turned into the image
+     */
+    public FootprintTable.Footprint transform(int transform, FootprintTable.Footprint footprint) {
+        int image = images[transform][footprint.getIndex()];
+        return image >= 0 ? footprints.footprint(image) : null;
+    }
+
+    /**
+     * Get the image of a placement under a transform
+     *
+     * @param transform the transform
+     * @param placement the placement to transform
+     * @return the placement of the image, or null if the building can not be turned into the image
+     */
+    public Placement transform(int transform, Placement placement) {
+        FootprintTable.Footprint footprint = footprints.get(placement);
+        FootprintTable.Footprint image = footprint != null ? transform(transform, footprint) : null;
+        return image != null ? image.getPlacement() : null;
+    }
+
+    // Canonical images
+    // ----------------
+
+    /**
+     * Get the transform that leads to the canonical image of the board of a game. Each cell is compared by the
+     * building on it, or by its color if it is not built on, in the order of the cell indices. The inventories of the
+     * players are the same in every image, thus they do not take part in the choice.
+     *
+     * @param game the game to get the transform for
+     * @return the transform to the lexicographically smallest image, or the identity if no other transform applies
+     */
+    public int canonical(Game game) {
+        Color[][] field = game.getBoard().getField();
+        for (int x = 0; x < CellMask.SIZE; x++) {
+            for (int y = 0; y < CellMask.SIZE; y++) {
+                codes[CellMask.index(x, y)] = field[x][y].ordinal();
+            }
+        }
+        int valid = (1 << TRANSFORMS) - 1;
+        for (Placement placement : game.getBoard().getPlacedBuildings()) {
+            FootprintTable.Footprint footprint = footprints.get(placement);
+            CellMask form = footprint.getForm();
+            for (int cell = form.nextSetBit(0); cell >= 0; cell = form.nextSetBit(cell + 1)) {
+                codes[cell] = BUILDING_CODES + footprints.id(placement.building());
+            }
+            for (int t = 1; t < TRANSFORMS; t++) {
+                if (images[t][footprint.getIndex()] < 0) {
+                    valid &= ~(1 << t);
+                }
+            }
+        }
+        int best = IDENTITY;
+        for (int t = 1; t < TRANSFORMS; t++) {
+            if ((valid & (1 << t)) != 0 && compare(t, best) < 0) {
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Compare the images of the loaded board under two transforms, cell by cell
+     *
+     * @param first  the first transform
+     * @param second the second transform
+     * @return a negative number, if the image of the first transform is smaller
+     */
+    private int compare(int first, int second) {
+        int[] firstSource = cells[INVERSE[first]];
+        int[] secondSource = cells[INVERSE[second]];
+        for (int cell = 0; cell < CellMask.CELLS; cell++) {
+            int difference = codes[firstSource[cell]] - codes[secondSource[cell]];
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+}
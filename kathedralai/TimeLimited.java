@@ -0,0 +1,13 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+/**
+ * An ai whose time budget of a single turn can be set from the outside
+ */
+public interface TimeLimited {
+    /**
+     * Set the time budget of a single turn
+     *
+     * @param timeLimit the budget in milliseconds
+     */
+    void setTimeLimit(long timeLimit);
+}
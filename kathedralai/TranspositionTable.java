@@ -0,0 +1,182 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size hash table of searched boards, keyed by the Zobrist hash of the board. Each bucket has two slots. With
+ * the depth-preferred policy, the first slot keeps the deepest search of the bucket and the second slot is always
+ * replaced. With the always-replace policy, a new entry always takes the first slot and pushes the old one into the
+ * second. The entries are stored in primitive arrays, and their amount is derived from a memory budget.
+ * <p>
+ * The table is not thread safe.
+ */
+public final class TranspositionTable {
+    // The value is the exact value of the board
+    public static final byte EXACT = 0;
+    // The value is a lower bound, the search was cut off by beta
+    public static final byte LOWER_BOUND = 1;
+    // The value is an upper bound, no placement reached alpha
+    public static final byte UPPER_BOUND = 2;
+
+    // Marker for an entry without a best placement
+    public static final int NO_MOVE = -1;
+
+    // The amount of bytes a single entry uses: key, value, move, depth and bound
+    private static final int ENTRY_BYTES = Long.BYTES + Double.BYTES + Integer.BYTES + 2;
+    // The amount of slots in a bucket
+    private static final int BUCKET_SIZE = 2;
+
+    /**
+     * How an entry is chosen to be overwritten
+     */
+    public enum Replacement {
+        DEPTH_PREFERRED,
+        ALWAYS_REPLACE
+    }
+
+    // Instance variables
+    // ------------------
+
+    // The replacement policy of the table
+    private final Replacement replacement;
+    // Mask to get the bucket of a hash
+    private final int bucketMask;
+    // The entries, in parallel arrays
+    private final long[] keys;
+    private final double[] values;
+    private final int[] moves;
+    private final byte[] depths;
+    private final byte[] bounds;
+    // If a slot contains an entry, as a key of 0 is a valid hash
+    private final boolean[] used;
+
+    // Constructors
+    // ------------
+
+    /**
+     * Create a new table that uses at most the given amount of memory
+     *
+     * @param megabytes   the memory budget in megabytes
+     * @param replacement the replacement policy
+     */
+    public TranspositionTable(int megabytes, Replacement replacement) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("The transposition table needs at least 1 MB, but got " + megabytes);
+        }
+        long budget = (long) megabytes * 1024 * 1024;
+        // The largest power of two amount of buckets that fits into the budget
+        long buckets = Long.highestOneBit(Math.max(1, budget / ((ENTRY_BYTES + 1) * BUCKET_SIZE)));
+        buckets = Math.min(buckets, 1 << 28);
+        int slots = (int) buckets * BUCKET_SIZE;
+
+        this.replacement = replacement;
+        this.bucketMask = (int) buckets - 1;
+        this.keys = new long[slots];
+        this.values = new double[slots];
+        this.moves = new int[slots];
+        this.depths = new byte[slots];
+        this.bounds = new byte[slots];
+        this.used = new boolean[slots];
+    }
+
+    // Instance methods
+    // ----------------
+
+    /**
+     * Look up the entry of a board
+     *
+     * @param key the hash of the board
+     * @return the slot of the entry, or -1 if the board is not in the table
+     */
+    public int probe(long key) {
+        int first = bucket(key);
+        for (int slot = first; slot < first + BUCKET_SIZE; slot++) {
+            if (used[slot] && keys[slot] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Store the result of a search
+     *
+     * @param key   the hash of the board
+     * @param depth the depth the board has been searched with
+     * @param value the value of the board
+     * @param bound if the value is exact, or a lower or upper bound
+     * @param move  the packed code of the best placement, or {@link #NO_MOVE}
+     */
+    public void store(long key, int depth, double value, byte bound, int move) {
+        int first = bucket(key);
+        int second = first + 1;
+        int slot;
+        if (used[first] && keys[first] == key) {
+            slot = first;
+        } else if (used[second] && keys[second] == key) {
+            slot = second;
+        } else if (replacement == Replacement.DEPTH_PREFERRED) {
+            slot = (!used[first] || depth >= depths[first]) ? first : second;
+        } else {
+            copy(first, second);
+            slot = first;
+        }
+        // Keep the best placement of an earlier search, if this search did not find one
+        if (move == NO_MOVE && used[slot] && keys[slot] == key) {
+            move = moves[slot];
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = value;
+        moves[slot] = move;
+        depths[slot] = (byte) Math.min(depth, Byte.MAX_VALUE);
+        bounds[slot] = bound;
+    }
+
+    /**
+     * Remove every entry from the table
+     */
+    public void clear() {
+        Arrays.fill(used, false);
+    }
+
+    private int bucket(long key) {
+        return ((int) (key ^ (key >>> 32)) & bucketMask) * BUCKET_SIZE;
+    }
+
+    private void copy(int from, int to) {
+        used[to] = used[from];
+        keys[to] = keys[from];
+        values[to] = values[from];
+        moves[to] = moves[from];
+        depths[to] = depths[from];
+        bounds[to] = bounds[from];
+    }
+
+    // Getter
+    // ------
+    public double value(int slot) {
+        return values[slot];
+    }
+
+    public int depth(int slot) {
+        return depths[slot];
+    }
+
+    public byte bound(int slot) {
+        return bounds[slot];
+    }
+
+    public int move(int slot) {
+        return moves[slot];
+    }
+
+    /**
+     * Get the amount of entries the table can hold
+     *
+     * @return the capacity of the table
+     */
+    public int capacity() {
+        return keys.length;
+    }
+}
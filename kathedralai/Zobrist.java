@@ -0,0 +1,189 @@
+package de.fhkiel.ki.examples.gui.withAi.kathedralai;
+
+import de.fhkiel.ki.cathedral.*;
+
+import java.util.Random;
+
+/**
+ * Zobrist hashing of a board: every placement, every region cell and the player to move has a random key, and the
+ * hash of a board is the exclusive or of the keys of everything that is on it. Boards that are reached by different
+ * orders of the same placements thus have the same hash.
+ */
+public final class Zobrist {
+    // The seed of the keys, fixed so that hashes are stable between runs
+    private static final long SEED = 0x5DEECE66DL;
+    // The most copies of a building a player can own
+    private static final int MAX_COPIES = 3;
+
+    // Instance variables
+    // ------------------
+
+    // The footprints of the buildings
+    private final FootprintTable footprints;
+    // The key of each placement, indexed by the code of its footprint
+    private final long[] placementKeys;
+    // The key of each region cell, indexed by [color ordinal][cell index]
+    private final long[][] regionKeys;
+    // The key of the player to move, indexed by the color ordinal
+    private final long[] playerKeys;
+    // The key of the amount of copies of a building a player has left, indexed by [color ordinal][building id][copies]
+    private final long[][][] inventoryKeys;
+
+    // Constructors
+    // ------------
+    public Zobrist(FootprintTable footprints) {
+        this(footprints, SEED);
+    }
+
+    public Zobrist(FootprintTable footprints, long seed) {
+        Random random = new Random(seed);
+        this.footprints = footprints;
+        this.placementKeys = new long[footprints.codeLimit()];
+        for (int i = 0; i < placementKeys.length; i++) {
+            placementKeys[i] = random.nextLong();
+        }
+        this.regionKeys = new long[Color.values().length][CellMask.CELLS];
+        for (long[] keys : regionKeys) {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = random.nextLong();
+            }
+        }
+        this.playerKeys = new long[Color.values().length];
+        for (int i = 0; i < playerKeys.length; i++) {
+            playerKeys[i] = random.nextLong();
+        }
+        // Drawn last from the seeded generator. The opening books are keyed by the hashes, thus the keys of every kind
+        // have to stay the same between runs for the books to stay valid, and a new kind of key is only drawn last.
+        this.inventoryKeys = new long[Color.values().length][footprints.getBuildings().size()][MAX_COPIES + 1];
+        for (long[][] player : inventoryKeys) {
+            for (long[] keys : player) {
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = random.nextLong();
+                }
+            }
+        }
+    }
+
+    // Instance methods
+    // ----------------
+
+    /**
+     * Calculate the hash of the board of a game and the player to move
+     *
+     * @param game the game to hash
+     * @return the hash of the game
+     */
+    public long hash(Game game) {
+        long hash = playerKeys[game.getCurrentPlayer().ordinal()];
+        for (Placement placement : game.getBoard().getPlacedBuildings()) {
+            // Placements of a symmetric building that cover the same fields lead to the same board
+            hash ^= placementKeys[footprints.get(placement).getCanonical().getCode()];
+        }
+        // The regions depend on the order in which the buildings were placed, thus they are part of the hash as well
+        Color[][] field = game.getBoard().getField();
+        Color whiteRegion = Color.White.subColor();
+        Color blackRegion = Color.Black.subColor();
+        for (int x = 0; x < CellMask.SIZE; x++) {
+            for (int y = 0; y < CellMask.SIZE; y++) {
+                Color color = field[x][y];
+                if (color.equals(whiteRegion) || color.equals(blackRegion)) {
+                    hash ^= regionKeys[color.ordinal()][CellMask.index(x, y)];
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Calculate the hash of the image of the board of a game under a symmetry. The hash of the identity is the same as
+     * {@link #hash(Game)}.
+     *
+     * @param game      the game to hash
+     * @param symmetry  the symmetries of the board
+     * @param transform the transform to apply, which must apply to every placed building
+     * @return the hash of the image of the game
+     */
+    public long hash(Game game, Symmetry symmetry, int transform) {
+        long hash = playerKeys[game.getCurrentPlayer().ordinal()];
+        for (Placement placement : game.getBoard().getPlacedBuildings()) {
+            hash ^= placementKeys[symmetry.transform(transform, footprints.get(placement)).getCode()];
+        }
+        Color[][] field = game.getBoard().getField();
+        Color whiteRegion = Color.White.subColor();
+        Color blackRegion = Color.Black.subColor();
+        for (int x = 0; x < CellMask.SIZE; x++) {
+            for (int y = 0; y < CellMask.SIZE; y++) {
+                Color color = field[x][y];
+                if (color.equals(whiteRegion) || color.equals(blackRegion)) {
+                    hash ^= regionKeys[color.ordinal()][symmetry.transformCell(transform, CellMask.index(x, y))];
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Calculate the hash of the buildings both players have left to place. Boards on which the same buildings are
+     * placed have the same inventories, but a cache that only knows the board can not rely on that.
+     *
+     * @param game the game to hash
+     * @return the hash of the inventories
+     */
+    public long inventoryHash(Game game) {
+        long hash = 0L;
+        for (Color player : new Color[]{Color.Black, Color.White}) {
+            int[] copies = new int[inventoryKeys[player.ordinal()].length];
+            for (Building building : game.getPlacableBuildings(player)) {
+                copies[footprints.id(building)]++;
+            }
+            for (int id = 0; id < copies.length; id++) {
+                hash ^= inventoryKeys[player.ordinal()][id][Math.min(copies[id], MAX_COPIES)];
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Calculate the hash of the canonical image of a game under the symmetries of the board, together with the
+     * inventories of the players. All images of a board have the same canonical hash.
+     *
+     * @param game      the game to hash
+     * @param symmetry  the symmetries of the board
+     * @param transform the transform to the canonical image, from {@link Symmetry#canonical(Game)}
+     * @return the canonical hash of the game
+     */
+    public long canonicalHash(Game game, Symmetry symmetry, int transform) {
+        return hash(game, symmetry, transform) ^ inventoryHash(game);
+    }
+
+    /**
+     * Get the key of a single placement
+     *
+     * @param code the packed code of the placement
+     * @return the key of the placement
+     */
+    public long placementKey(int code) {
+        return placementKeys[code];
+    }
+
+    /**
+     * Get the key of a single region cell
+     *
+     * @param region the region color of the cell
+     * @param cell   the index of the cell
+     * @return the key of the region cell
+     */
+    public long regionKey(Color region, int cell) {
+        return regionKeys[region.ordinal()][cell];
+    }
+
+    /**
+     * Get the key of the player to move
+     *
+     * @param player the player to move
+     * @return the key of the player
+     */
+    public long playerKey(Color player) {
+        return playerKeys[player.ordinal()];
+    }
+}